@@ -0,0 +1,74 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.res.Resources;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Checks that the details a row shows for a contact (as looked up when binding the row) are only
+ * worked out once, so that binding the row again allocates nothing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactDetailsAllocationTest {
+    private static final int CONTACT_COUNT = 5000;
+
+    private static final String[] NAMES = {"Anna", "Bjorn", "Carlos", "Dagny", "Erik", "Finnur",
+            "Gudrun", "Helga", "Ingrid", "Jon", "Kari", "Lars", "Maria", "Nils", "Olafur"};
+
+    private static ArrayList<ContactDetails> createContacts() {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>(CONTACT_COUNT);
+        for (int i = 0; i < CONTACT_COUNT; i++) {
+            String first = NAMES[i % NAMES.length];
+            String last = NAMES[(i / NAMES.length) % NAMES.length] + "sson";
+            String email = (first + "." + last + "@example.com").toLowerCase(Locale.US);
+            // Some contacts have more than one email and number, and so show "+n more" labels.
+            contacts.add(new ContactDetails(i, first + " " + last,
+                    i % 3 == 0 ? Arrays.asList(email, "x" + email) : Arrays.asList(email),
+                    i % 4 == 0 ? Arrays.asList("+1 555 0100", "+1 555 0101", "+1 555 0102")
+                               : Arrays.asList("+1 555 0100")));
+        }
+        return contacts;
+    }
+
+    /** Looks up what each row shows, in order, as scrolling through the list does. */
+    private static void bindAll(ArrayList<ContactDetails> contacts, Resources resources) {
+        for (int i = 0; i < contacts.size(); i++) {
+            ContactDetails contact = contacts.get(i);
+            contact.getDisplayName();
+            contact.getDisplayNameAbbreviation();
+            contact.getAbbreviatedContactDetails(
+                    /*includeEmails=*/true, /*includeTels=*/true, resources);
+        }
+    }
+
+    @Test
+    @MediumTest
+    @SuppressWarnings("deprecation")
+    public void testBindingAgainDoesNotAllocate() {
+        Resources resources = InstrumentationRegistry.getTargetContext().getResources();
+        ArrayList<ContactDetails> contacts = createContacts();
+        bindAll(contacts, resources);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        bindAll(contacts, resources);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Assert.assertEquals(0, allocations);
+    }
+}
@@ -0,0 +1,224 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks for {@link ContactsFetcherWorkerTask}, comparing the single-pass Data table join
+ * against the per-kind queries (emails, telephone numbers and contacts joined through maps) it
+ * replaced. The provider is faked with in-memory cursors, so the numbers measure the cost of
+ * walking and joining the cursors, not the cost of the Binder transactions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactsFetcherBenchmarkTest {
+    private static final String TAG = "ContactsBenchmark";
+
+    // The number of times to run each fetch (the fastest run is reported).
+    private static final int ITERATIONS = 5;
+
+    /**
+     * A content provider serving a generated address book. Every contact has a name, one email
+     * and one or two telephone numbers.
+     */
+    private static class FakeContactsProvider extends MockContentProvider {
+        private final int mContactCount;
+
+        FakeContactsProvider(int contactCount) {
+            mContactCount = contactCount;
+        }
+
+        // Zero-padded names make the name order match the id order, which is what the provider
+        // would return when sorting by SORT_KEY_PRIMARY.
+        private String name(int id) {
+            return String.format(Locale.US, "Contact %06d", id);
+        }
+
+        private String email(int id) {
+            return "contact" + id + "@example.com";
+        }
+
+        private String phone(int id, int index) {
+            return String.format(Locale.US, "555-%04d-%d", id % 10000, index);
+        }
+
+        private int phoneCount(int id) {
+            return id % 3 == 0 ? 2 : 1;
+        }
+
+        /**
+         * Adds a Data table row, putting each value in the column the projection asks for it in
+         * (so that the fetcher's projection can change without the rows going out of step).
+         * @param cursor The cursor to add the row to.
+         * @param projection The columns of the cursor.
+         * @param id The id of the contact.
+         * @param mimeType The kind of data the row holds.
+         * @param value The data itself.
+         */
+        private void addDataRow(MatrixCursor cursor, String[] projection, int id, String mimeType,
+                String value) {
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                switch (projection[i]) {
+                    case ContactsContract.Data.CONTACT_ID:
+                        row[i] = id;
+                        break;
+                    case ContactsContract.Data.DISPLAY_NAME_PRIMARY:
+                    case ContactsContract.Data.SORT_KEY_PRIMARY:
+                        row[i] = name(id);
+                        break;
+                    case ContactsContract.Data.MIMETYPE:
+                        row[i] = mimeType;
+                        break;
+                    case ContactsContract.Data.DATA1:
+                        row[i] = value;
+                        break;
+                    default:
+                        Assert.fail("Unexpected column: " + projection[i]);
+                }
+            }
+            cursor.addRow(row);
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            if (uri.equals(ContactsContract.Data.CONTENT_URI)) {
+                List<String> mimeTypes = Arrays.asList(selectionArgs);
+                MatrixCursor cursor = new MatrixCursor(projection);
+                for (int id = 1; id <= mContactCount; id++) {
+                    if (mimeTypes.contains(
+                                ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)) {
+                        addDataRow(cursor, projection, id,
+                                ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                                name(id));
+                    }
+                    if (mimeTypes.contains(
+                                ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE)) {
+                        addDataRow(cursor, projection, id,
+                                ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+                                email(id));
+                    }
+                    if (mimeTypes.contains(
+                                ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE)) {
+                        for (int i = 0; i < phoneCount(id); i++) {
+                            addDataRow(cursor, projection, id,
+                                    ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                                    phone(id, i));
+                        }
+                    }
+                }
+                return cursor;
+            }
+
+            if (uri.equals(ContactsContract.CommonDataKinds.Email.CONTENT_URI)) {
+                MatrixCursor cursor = new MatrixCursor(projection);
+                for (int id = 1; id <= mContactCount; id++) {
+                    cursor.addRow(new Object[] {id, email(id)});
+                }
+                return cursor;
+            }
+
+            if (uri.equals(ContactsContract.CommonDataKinds.Phone.CONTENT_URI)) {
+                MatrixCursor cursor = new MatrixCursor(projection);
+                for (int id = 1; id <= mContactCount; id++) {
+                    for (int i = 0; i < phoneCount(id); i++) {
+                        cursor.addRow(new Object[] {id, phone(id, i)});
+                    }
+                }
+                return cursor;
+            }
+
+            if (uri.equals(ContactsContract.Contacts.CONTENT_URI)) {
+                MatrixCursor cursor = new MatrixCursor(projection);
+                for (int id = 1; id <= mContactCount; id++) {
+                    cursor.addRow(new Object[] {id, name(id)});
+                }
+                return cursor;
+            }
+
+            Assert.fail("Unexpected query: " + uri);
+            return null;
+        }
+    }
+
+    private ContactsFetcherWorkerTask createFetcher(int contactCount) {
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(ContactsContract.AUTHORITY, new FakeContactsProvider(contactCount));
+        return new ContactsFetcherWorkerTask(resolver, /*callback=*/null, /*includeNames=*/true,
+                /*includeEmails=*/true, /*includeTel=*/true, /*streaming=*/false,
+                /*snapshotFile=*/null);
+    }
+
+    private void runBenchmark(int contactCount) {
+        ContactsFetcherWorkerTask fetcher = createFetcher(contactCount);
+
+        long bestPerKindMs = Long.MAX_VALUE;
+        long bestDataJoinMs = Long.MAX_VALUE;
+        ArrayList<ContactDetails> perKind = null;
+        ArrayList<ContactDetails> dataJoin = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            perKind = fetcher.getAllContactsUsingPerKindQueries();
+            bestPerKindMs = Math.min(bestPerKindMs, SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            dataJoin = fetcher.getAllContacts();
+            bestDataJoinMs = Math.min(bestDataJoinMs, SystemClock.elapsedRealtime() - start);
+        }
+
+        Log.i(TAG,
+                String.format(Locale.US, "%d contacts: per-kind queries %d ms, data join %d ms",
+                        contactCount, bestPerKindMs, bestDataJoinMs));
+
+        // Both approaches must agree on the results.
+        Assert.assertEquals(contactCount, perKind.size());
+        Assert.assertEquals(contactCount, dataJoin.size());
+        for (int i = 0; i < contactCount; i++) {
+            ContactDetails expected = perKind.get(i);
+            ContactDetails actual = dataJoin.get(i);
+            Assert.assertEquals(expected.getId(), actual.getId());
+            Assert.assertEquals(expected.getDisplayName(), actual.getDisplayName());
+            Assert.assertEquals(expected.getEmails(), actual.getEmails());
+            Assert.assertEquals(expected.getPhoneNumbers(), actual.getPhoneNumbers());
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testFetch1kContacts() {
+        runBenchmark(1000);
+    }
+
+    @Test
+    @LargeTest
+    public void testFetch10kContacts() {
+        runBenchmark(10000);
+    }
+
+    @Test
+    @LargeTest
+    public void testFetch50kContacts() {
+        runBenchmark(50000);
+    }
+}
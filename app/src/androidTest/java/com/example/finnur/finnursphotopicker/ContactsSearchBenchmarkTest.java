@@ -0,0 +1,78 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Benchmarks for {@link ContactsSearchIndex}, measuring the time it takes to build the index and
+ * to answer each keystroke as a query is typed out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactsSearchBenchmarkTest {
+    private static final String TAG = "ContactsBenchmark";
+
+    // The budget for answering a single keystroke.
+    private static final long KEYSTROKE_BUDGET_NS = 4 * 1000 * 1000;
+
+    private static final String[] NAMES = {"Anna", "Bjorn", "Carlos", "Dagny", "Erik", "Finnur",
+            "Gudrun", "Helga", "Ingrid", "Jon", "Kari", "Lars", "Maria", "Nils", "Olafur"};
+
+    private static ArrayList<ContactDetails> createContacts(int contactCount) {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>(contactCount);
+        for (int i = 0; i < contactCount; i++) {
+            String first = NAMES[i % NAMES.length];
+            String last = NAMES[(i / NAMES.length) % NAMES.length] + "sson";
+            contacts.add(new ContactDetails(i, first + " " + last + " " + i,
+                    Arrays.asList((first + "." + last + i + "@example.com").toLowerCase(Locale.US)),
+                    Arrays.asList(String.format(Locale.US, "+1 555 %07d", i))));
+        }
+        return contacts;
+    }
+
+    private void runBenchmark(int contactCount, String query) {
+        ArrayList<ContactDetails> contacts = createContacts(contactCount);
+
+        long start = SystemClock.elapsedRealtime();
+        ContactsSearchIndex index = ContactsSearchIndex.build(contacts, Locale.US);
+        long buildMs = SystemClock.elapsedRealtime() - start;
+
+        // Type the query out one character at a time, like the user would.
+        long worstNs = 0;
+        for (int i = 1; i <= query.length(); i++) {
+            long keystrokeStart = System.nanoTime();
+            index.search(query.substring(0, i), true, true);
+            worstNs = Math.max(worstNs, System.nanoTime() - keystrokeStart);
+        }
+
+        // Timings vary too much between devices to assert on, so they are logged instead.
+        Log.i(TAG,
+                String.format(Locale.US,
+                        "%d contacts: index built in %d ms, slowest keystroke %d us (budget %d us)",
+                        contactCount, buildMs, worstNs / 1000, KEYSTROKE_BUDGET_NS / 1000));
+    }
+
+    @Test
+    @LargeTest
+    public void testSearch20kContactsByName() {
+        runBenchmark(20000, "finnur gud");
+    }
+
+    @Test
+    @LargeTest
+    public void testSearch20kContactsByTelephone() {
+        runBenchmark(20000, "555 0012");
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests reading missing and corrupt {@link ContactsSnapshot} files. On the device, as reading a
+ * corrupt file logs a warning (which local unit tests can't do).
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactsSnapshotCorruptTest {
+    private static ArrayList<ContactDetails> createContacts() {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>();
+        contacts.add(new ContactDetails(7, "Alice",
+                Arrays.asList("alice@example.com", "alice@example.org"),
+                Arrays.asList("555-1234")));
+        contacts.add(new ContactDetails(5, "Dave", null, null));
+        return contacts;
+    }
+
+    @Test
+    @SmallTest
+    public void testReadMissingOrCorrupt() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            Assert.assertNull(ContactsSnapshot.read(new File(file.getPath() + ".missing"),
+                    /*includeNames=*/true, /*includeEmails=*/true, /*includeTel=*/true));
+
+            // Not a snapshot at all.
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                output.write(new byte[] {1, 2, 3});
+            }
+            Assert.assertNull(ContactsSnapshot.read(file, /*includeNames=*/true,
+                    /*includeEmails=*/true, /*includeTel=*/true));
+
+            // A snapshot cut short.
+            ContactsSnapshot.write(file, createContacts(), new ContactsSnapshot.Stamp(1, 2, 4, 3),
+                    /*includeNames=*/true, /*includeEmails=*/true, /*includeTel=*/true);
+            try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                output.setLength(output.length() - 2);
+            }
+            Assert.assertNull(ContactsSnapshot.read(file, /*includeNames=*/true,
+                    /*includeEmails=*/true, /*includeTel=*/true));
+            Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            file.delete();
+        }
+    }
+}
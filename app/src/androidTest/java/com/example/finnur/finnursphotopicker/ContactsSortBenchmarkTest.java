@@ -0,0 +1,87 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Benchmarks for sorting contacts: by comparing the names with String.compareTo (fast, but wrong
+ * for anything but ASCII), with a Collator (right, but slow), and with the collation keys the
+ * {@link ContactsStore} works out the first time its contacts are compared (which
+ * {@link ContactDetails#compareTo} uses).
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactsSortBenchmarkTest {
+    private static final String TAG = "ContactsBenchmark";
+
+    private static final int CONTACT_COUNT = 20000;
+
+    private static final String[] NAMES = {"Anna", "\u00c1sta", "Bj\u00f6rn", "Carlos", "Dagny",
+            "\u00d0\u00f3ra", "Erik", "\u00c9lise", "Finnur", "Gudrun", "Helga", "\u00cdris", "Jon",
+            "Kari", "Lars", "Maria", "Nils", "\u00d3lafur", "\u00deor", "\u00c6gir"};
+
+    /** @return The contacts, in no particular order, along with how long it took to build them. */
+    private static ArrayList<ContactDetails> createContacts(long[] buildMs) {
+        long start = SystemClock.elapsedRealtime();
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        for (int i = 0; i < CONTACT_COUNT; i++) {
+            // Scatter the contacts, so that they don't start out sorted.
+            int scattered = (int) ((i * 7919L) % CONTACT_COUNT);
+            String first = NAMES[scattered % NAMES.length];
+            String last = NAMES[(scattered / NAMES.length) % NAMES.length] + "sson";
+            builder.beginContact(i, first + " " + last + " " + scattered);
+            builder.addEmail(String.format(Locale.US, "contact%d@example.com", i));
+            builder.endContact(/*keepWithoutDetails=*/false);
+        }
+        ArrayList<ContactDetails> contacts = builder.build().createContacts();
+        buildMs[0] = SystemClock.elapsedRealtime() - start;
+        return contacts;
+    }
+
+    private static long timeSort(
+            ArrayList<ContactDetails> contacts, Comparator<ContactDetails> comparator) {
+        ArrayList<ContactDetails> copy = new ArrayList<ContactDetails>(contacts);
+        long start = SystemClock.elapsedRealtime();
+        Collections.sort(copy, comparator);
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    @Test
+    @LargeTest
+    public void testSort20kContacts() {
+        long[] buildMs = new long[1];
+        ArrayList<ContactDetails> contacts = createContacts(buildMs);
+
+        long stringMs = timeSort(contacts,
+                (first, second) -> first.getDisplayName().compareTo(second.getDisplayName()));
+        final Collator collator = Collator.getInstance(Locale.getDefault());
+        long collatorMs = timeSort(contacts, (first, second) -> {
+            return collator.compare(first.getDisplayName(), second.getDisplayName());
+        });
+        // The first sort also works out the collation keys.
+        long firstKeysMs = timeSort(contacts, (first, second) -> first.compareTo(second));
+        long keysMs = timeSort(contacts, (first, second) -> first.compareTo(second));
+
+        // Timings vary too much between devices to assert on, so they are logged instead.
+        Log.i(TAG,
+                String.format(Locale.US,
+                        "Sorting %d contacts: String.compareTo %d ms, Collator %d ms, "
+                                + "collation keys %d ms (%d ms working them out first, store "
+                                + "built in %d ms)",
+                        CONTACT_COUNT, stringMs, collatorMs, keysMs, firstKeysMs, buildMs[0]));
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;  // Android Studio project only.
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.chromium.chrome.browser.ui.widget.RoundedIconGenerator;
+
+import java.util.HashSet;
+
+/**
+ * Tests for the {@link InitialsIconCache} class, checking that scrolling through a long list of
+ * contacts without photos draws each icon only once, and allocates nothing once they are drawn.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InitialsIconCacheTest {
+    private static final int ROW_COUNT = 5000;
+    private static final int ICON_SIZE_PX = 96;
+
+    private static final String[] NAMES = {"Anna", "Bjorn", "Carlos", "Dagny", "erik", "Finnur",
+            "Gudrun", "Helga", "\u00cdris", "Jon", "Kari", "Lars", "Maria", "Nils", "\u00d3lafur",
+            "\u00de\u00f3ra", "", "42"};
+
+    private Resources mResources;
+    private String[] mDisplayNames;
+
+    @Before
+    public void setUp() {
+        mResources = InstrumentationRegistry.getTargetContext().getResources();
+        mDisplayNames = new String[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            String name = NAMES[i % NAMES.length];
+            mDisplayNames[i] = name.isEmpty() ? name : name + " " + i;
+        }
+    }
+
+    private InitialsIconCache createCache(int maxIcons) {
+        RoundedIconGenerator generator = new RoundedIconGenerator(
+                ICON_SIZE_PX, ICON_SIZE_PX, ICON_SIZE_PX / 2, Color.GRAY, ICON_SIZE_PX / 3f);
+        return new InitialsIconCache(mResources, generator, Color.GRAY, ICON_SIZE_PX, maxIcons);
+    }
+
+    /** Binds every row once, in order, as scrolling through the list does. */
+    private void scroll(InitialsIconCache cache) {
+        for (int i = 0; i < ROW_COUNT; i++) cache.getIcon(mDisplayNames[i]);
+    }
+
+    @Test
+    @MediumTest
+    @SuppressWarnings("deprecation")
+    public void testScrollDoesNotAllocate() {
+        InitialsIconCache cache = createCache(64);
+        scroll(cache);
+
+        // Each first letter is drawn once (and the nameless contacts share an icon).
+        HashSet<Character> glyphs = new HashSet<Character>();
+        for (String name : NAMES) glyphs.add(name.isEmpty() ? 0 : name.charAt(0));
+        Assert.assertEquals(glyphs.size(), cache.getGeneratedCount());
+        Assert.assertEquals(ROW_COUNT - glyphs.size(), cache.getHitCount());
+
+        // Scrolling back through the list finds every icon in the cache, without allocating.
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        scroll(cache);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Assert.assertEquals(glyphs.size(), cache.getGeneratedCount());
+        Assert.assertEquals(0, allocations);
+    }
+
+    @Test
+    @MediumTest
+    public void testBounded() {
+        InitialsIconCache cache = createCache(4);
+        scroll(cache);
+
+        // There are more letters than the cache holds, and they take turns, so every icon is
+        // evicted before it is needed again.
+        Assert.assertEquals(ROW_COUNT, cache.getGeneratedCount());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    @MediumTest
+    public void testKeyedByColor() {
+        InitialsIconCache cache = createCache(64);
+        Drawable grayIcon = cache.getIcon("Anna");
+        cache.setBackgroundColor(Color.BLUE);
+        Drawable blueIcon = cache.getIcon("Anna");
+        Assert.assertNotSame(grayIcon, blueIcon);
+        Assert.assertSame(blueIcon, cache.getIcon("Alice"));
+        Assert.assertEquals(2, cache.getGeneratedCount());
+    }
+}
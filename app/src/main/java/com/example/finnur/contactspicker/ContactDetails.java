@@ -10,12 +10,12 @@ import androidx.annotation.Nullable;
 
 // import org.chromium.chrome.R;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
- * A class to keep track of the metadata associated with a contact.
+ * A class to keep track of the metadata associated with a contact. The metadata itself lives in
+ * a {@link ContactsStore}, this is only a lightweight view onto one of its rows.
  */
 public class ContactDetails implements Comparable<ContactDetails> {
     /**
@@ -30,17 +30,25 @@ public class ContactDetails implements Comparable<ContactDetails> {
         public String overflowTelephoneNumberCount;
     }
 
+    // The store holding the details for this contact.
+    private final ContactsStore mStore;
+
+    // The row in the store holding the details for this contact.
+    private final int mRow;
+
     // The unique id for the contact.
-    private final String mId;
+    private final long mId;
 
     // The display name for this contact.
     private final String mDisplayName;
 
-    // The list of emails registered for this contact.
-    private final List<String> mEmails;
-
-    // The list of phone numbers registered for this contact.
-    private final List<String> mPhoneNumbers;
+    // The abbreviated display name and contact details, worked out the first time a row showing
+    // the contact is bound (so that binding it again builds no strings). The details depend on
+    // which details are included, so that is remembered along with them.
+    private String mDisplayNameAbbreviation;
+    private AbbreviatedContactDetails mAbbreviatedDetails;
+    private boolean mAbbreviatedDetailsIncludeEmails;
+    private boolean mAbbreviatedDetailsIncludeTels;
 
     /**
      * The ContactDetails constructor.
@@ -50,12 +58,21 @@ public class ContactDetails implements Comparable<ContactDetails> {
      * @param phoneNumbers The phone numbers registered for this contact.
      */
     public ContactDetails(
-            String id, String displayName, List<String> emails, List<String> phoneNumbers) {
-        mDisplayName = displayName;
-        mEmails = emails != null ? new ArrayList<String>(emails) : new ArrayList<String>();
-        mPhoneNumbers = phoneNumbers != null ? new ArrayList<String>(phoneNumbers)
-                                             : new ArrayList<String>();
-        mId = id;
+            long id, String displayName, List<String> emails, List<String> phoneNumbers) {
+        this(ContactsStore.forContact(id, displayName, emails, phoneNumbers), 0);
+    }
+
+    /**
+     * Creates a view onto a contact in a {@link ContactsStore}.
+     * @param store The store holding the details for the contact.
+     * @param row The row in the store holding the details for the contact.
+     */
+    ContactDetails(ContactsStore store, int row) {
+        mStore = store;
+        mRow = row;
+        // The id and name are read often enough (when comparing and binding) to keep at hand.
+        mId = store.getId(row);
+        mDisplayName = store.getDisplayName(row);
     }
 
     public List<String> getDisplayNames() {
@@ -63,37 +80,75 @@ public class ContactDetails implements Comparable<ContactDetails> {
     }
 
     public List<String> getEmails() {
-        return mEmails;
+        return mStore.getEmails(mRow);
     }
 
     public List<String> getPhoneNumbers() {
-        return mPhoneNumbers;
+        return mStore.getPhoneNumbers(mRow);
+    }
+
+    /** @return The number of emails (read them with {@link #getEmail}, without a list). */
+    int getEmailCount() {
+        return mStore.getEmailCount(mRow);
+    }
+
+    String getEmail(int index) {
+        return mStore.getEmail(mRow, index);
+    }
+
+    /** @return The number of telephone numbers (read them with {@link #getPhoneNumber}). */
+    int getPhoneNumberCount() {
+        return mStore.getPhoneNumberCount(mRow);
+    }
+
+    String getPhoneNumber(int index) {
+        return mStore.getPhoneNumber(mRow, index);
     }
 
     public String getDisplayName() {
         return mDisplayName;
     }
 
-    public String getId() {
+    public long getId() {
         return mId;
     }
 
+    /** @return The store holding the details for this contact. */
+    ContactsStore getStore() {
+        return mStore;
+    }
+
+    /** @return The key the contacts provider sorts this contact by. */
+    String getSortKey() {
+        return mStore.getSortKey(mRow);
+    }
+
+    /** @return The section of the alphabetical index this contact is listed under. */
+    char getSectionLabel() {
+        return mStore.getSectionLabel(mRow);
+    }
+
     /**
      * Accessor for the abbreviated display name (first letter of first name and first letter of
      * last name).
      * @return The display name, abbreviated to two characters.
      */
     public String getDisplayNameAbbreviation() {
-        // Display the two letter abbreviation of the display name.
+        if (mDisplayNameAbbreviation != null) return mDisplayNameAbbreviation;
+
+        // Display the two letter abbreviation of the display name: the first letter, followed by
+        // the first letter of the last word (if there is more than one word). Trailing spaces
+        // don't start a word.
         String displayChars = "";
         if (mDisplayName.length() > 0) {
             displayChars += mDisplayName.charAt(0);
-            String[] parts = mDisplayName.split(" ");
-            if (parts.length > 1) {
-                displayChars += parts[parts.length - 1].charAt(0);
-            }
+            int end = mDisplayName.length() - 1;
+            while (end >= 0 && mDisplayName.charAt(end) == ' ') end--;
+            int space = end >= 0 ? mDisplayName.lastIndexOf(' ', end) : -1;
+            if (space >= 0) displayChars += mDisplayName.charAt(space + 1);
         }
 
+        mDisplayNameAbbreviation = displayChars;
         return displayChars;
     }
 
@@ -108,19 +163,19 @@ public class ContactDetails implements Comparable<ContactDetails> {
         int count = 0;
         StringBuilder builder = new StringBuilder();
         if (includeEmails) {
-            for (String email : mEmails) {
+            for (int i = 0; i < mStore.getEmailCount(mRow); i++) {
                 if (count++ > 0) {
                     builder.append("\n");
                 }
-                builder.append(email);
+                builder.append(mStore.getEmail(mRow, i));
             }
         }
         if (includeTels) {
-            for (String phoneNumber : mPhoneNumbers) {
+            for (int i = 0; i < mStore.getPhoneNumberCount(mRow); i++) {
                 if (count++ > 0) {
                     builder.append("\n");
                 }
-                builder.append(phoneNumber);
+                builder.append(mStore.getPhoneNumber(mRow, i));
             }
         }
 
@@ -128,7 +183,8 @@ public class ContactDetails implements Comparable<ContactDetails> {
     }
 
     /**
-     * Accessor for the list of contact details (emails and phone numbers).
+     * Accessor for the list of contact details (emails and phone numbers). The details are worked
+     * out once and then returned as is, until asked for with a different set of details.
      * @param includeEmails Whether to include emails in the returned results.
      * @param includeTels Whether to include telephones in the returned results.
      * @param resources The resources to use for fetching the string. Must be provided.
@@ -136,14 +192,19 @@ public class ContactDetails implements Comparable<ContactDetails> {
      */
     public AbbreviatedContactDetails getAbbreviatedContactDetails(
             boolean includeEmails, boolean includeTels, @Nullable Resources resources) {
+        if (mAbbreviatedDetails != null && mAbbreviatedDetailsIncludeEmails == includeEmails
+                && mAbbreviatedDetailsIncludeTels == includeTels) {
+            return mAbbreviatedDetails;
+        }
+
         AbbreviatedContactDetails results = new AbbreviatedContactDetails();
 
         results.overflowEmailCount = "";
-        if (!includeEmails || mEmails.size() == 0) {
+        int totalAddresses = mStore.getEmailCount(mRow);
+        if (!includeEmails || totalAddresses == 0) {
             results.primaryEmail = "";
         } else {
-            results.primaryEmail = mEmails.get(0);
-            int totalAddresses = mEmails.size();
+            results.primaryEmail = mStore.getEmail(mRow, 0);
             if (totalAddresses > 1) {
                 int hiddenAddresses = totalAddresses - 1;
                 // The Android Studio project doesn't have the fancy plural constants
@@ -154,11 +215,11 @@ public class ContactDetails implements Comparable<ContactDetails> {
         }
 
         results.overflowTelephoneNumberCount = "";
-        if (!includeTels || mPhoneNumbers.size() == 0) {
+        int totalNumbers = mStore.getPhoneNumberCount(mRow);
+        if (!includeTels || totalNumbers == 0) {
             results.primaryTelephoneNumber = "";
         } else {
-            results.primaryTelephoneNumber = mPhoneNumbers.get(0);
-            int totalNumbers = mPhoneNumbers.size();
+            results.primaryTelephoneNumber = mStore.getPhoneNumber(mRow, 0);
             if (totalNumbers > 1) {
                 int hiddenNumbers = totalNumbers - 1;
                 // The Android Studio project doesn't have the fancy plural constants
@@ -168,23 +229,28 @@ public class ContactDetails implements Comparable<ContactDetails> {
             }
         }
 
+        mAbbreviatedDetails = results;
+        mAbbreviatedDetailsIncludeEmails = includeEmails;
+        mAbbreviatedDetailsIncludeTels = includeTels;
         return results;
     }
 
     /**
-     * A comparison function (results in a full name ascending sorting).
+     * A comparison function (results in the ascending order the contacts provider lists contacts
+     * in: by sort key, following the collation rules of the default locale, and by id for
+     * contacts with the same sort key).
      * @param other The other ContactDetails object to compare it with.
-     * @return 0, 1, or -1, depending on which is bigger.
+     * @return A negative number, zero or a positive number, depending on which is bigger.
      */
     @Override
     public int compareTo(ContactDetails other) {
-        return other.mDisplayName.compareTo(mDisplayName);
+        int result = ContactsStore.compareSortKeys(mStore, mRow, other.mStore, other.mRow);
+        return result != 0 ? result : Long.compare(mId, other.mId);
     }
 
     @Override
     public int hashCode() {
-        Object[] values = {mId, mDisplayName};
-        return Arrays.hashCode(values);
+        return (int) (mId ^ (mId >>> 32));
     }
 
     @Override
@@ -194,6 +260,6 @@ public class ContactDetails implements Comparable<ContactDetails> {
         if (!(object instanceof ContactDetails)) return false;
 
         ContactDetails otherInfo = (ContactDetails) object;
-        return mId.equals(otherInfo.mId);
+        return mId == otherInfo.mId;
     }
 }
@@ -0,0 +1,298 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import org.chromium.chrome.browser.util.ConversionUtils;
+
+import java.util.Arrays;
+
+/**
+ * A least-recently-used cache of contact icons, keyed by contact id. Works like an
+ * {@link android.util.LruCache} sized in kilobytes, but keeps its entries in primitive arrays
+ * (indexed through a {@link LongIntMap}), so lookups neither box the id nor allocate.
+ *
+ * Icons evicted to make room for new ones are handed to an {@link IconBitmapPool}, so that their
+ * memory can be reused for decoding the next icons, but only once no row shows them any more:
+ * rows {@link #retain} the icons they show and {@link #release} them when they stop showing them,
+ * and an icon evicted while shown goes to the pool when the last row releases it. The cache
+ * shrinks when the system is low on memory (see {@link #onTrimMemory}), and counts hits, misses
+ * and evictions.
+ *
+ * Must only be used on the UI thread.
+ */
+class ContactIconCache {
+    // Marks the end of the recency list (and of the free list).
+    private static final int NONE = -1;
+
+    // The maximum total size of the icons (in kilobytes).
+    private int mMaxSizeKb;
+
+    // The pool to hand evicted icons to.
+    private final IconBitmapPool mBitmapPool;
+
+    // The number of lookups that found an icon, and that did not.
+    private int mHitCount;
+    private int mMissCount;
+
+    // The number of icons evicted (to make room, or to free up memory).
+    private int mEvictionCount;
+
+    // The current total size of the icons (in kilobytes).
+    private int mSizeKb;
+
+    // Maps a contact id to the slot holding its icon.
+    private final LongIntMap mSlots = new LongIntMap();
+
+    // The per-slot data: the contact id, the icon and its size (in kilobytes).
+    private long[] mIds = new long[0];
+    private Bitmap[] mIcons = new Bitmap[0];
+    private int[] mSizesKb = new int[0];
+
+    // A doubly-linked list threaded through the slots, from most to least recently used.
+    private int[] mPrevious = new int[0];
+    private int[] mNext = new int[0];
+    private int mMostRecent = NONE;
+    private int mLeastRecent = NONE;
+
+    // The number of slots handed out so far, and a list (threaded through mNext) of slots that
+    // have been vacated and can be reused.
+    private int mSlotCount;
+    private int mFreeSlot = NONE;
+
+    // The icons shown by rows, the number of rows showing each, and whether each was evicted
+    // (for reuse) while shown, in which case it goes to the pool once no row shows it. Only as
+    // many as there are rows, so they are looked up by scanning.
+    private Bitmap[] mShownIcons = new Bitmap[16];
+    private int[] mShownCounts = new int[16];
+    private boolean[] mShownEvicted = new boolean[16];
+    private int mShownCount;
+
+    /**
+     * @param maxSizeKb The maximum total size of the icons to keep (in kilobytes).
+     * @param bitmapPool The pool to hand evicted icons to, for reuse.
+     */
+    ContactIconCache(int maxSizeKb, IconBitmapPool bitmapPool) {
+        mMaxSizeKb = maxSizeKb;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * @param contactId The id of the contact to look up.
+     * @return The icon for the contact, or null if it is not in the cache.
+     */
+    Bitmap get(long contactId) {
+        int slot = mSlots.get(contactId, NONE);
+        if (slot == NONE) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        moveToFront(slot);
+        return mIcons[slot];
+    }
+
+    /**
+     * Checks for an icon without counting it as a lookup (or marking the icon as recently used).
+     * @param contactId The id of the contact to check for.
+     * @return Whether the icon for the contact is in the cache.
+     */
+    boolean contains(long contactId) {
+        return mSlots.containsKey(contactId);
+    }
+
+    /**
+     * Adds (or replaces) the icon for a contact, evicting the least recently used icons if the
+     * cache grows too big.
+     * @param contactId The id of the contact.
+     * @param icon The icon to cache.
+     */
+    void put(long contactId, Bitmap icon) {
+        int sizeKb = (int) ConversionUtils.bytesToKilobytes(icon.getByteCount());
+        int slot = mSlots.get(contactId, NONE);
+        if (slot != NONE) {
+            mSizeKb -= mSizesKb[slot];
+            unlink(slot);
+        } else {
+            slot = allocateSlot();
+            mSlots.put(contactId, slot);
+            mIds[slot] = contactId;
+        }
+        mIcons[slot] = icon;
+        mSizesKb[slot] = sizeKb;
+        // An icon back in the cache is no longer waiting to be reused.
+        int shown = findShown(icon);
+        if (shown != NONE) mShownEvicted[shown] = false;
+        mSizeKb += sizeKb;
+        linkAtFront(slot);
+
+        trimToSize(mMaxSizeKb, /*reuseEvicted=*/true);
+    }
+
+    /**
+     * Marks an icon as shown by a row, so that it is not reused while the row shows it. Must be
+     * balanced by a call to {@link #release}.
+     * @param icon The icon (which need not be in the cache).
+     */
+    void retain(Bitmap icon) {
+        int index = findShown(icon);
+        if (index != NONE) {
+            mShownCounts[index]++;
+            return;
+        }
+        if (mShownCount == mShownIcons.length) {
+            mShownIcons = Arrays.copyOf(mShownIcons, mShownCount * 2);
+            mShownCounts = Arrays.copyOf(mShownCounts, mShownCount * 2);
+            mShownEvicted = Arrays.copyOf(mShownEvicted, mShownCount * 2);
+        }
+        mShownIcons[mShownCount] = icon;
+        mShownCounts[mShownCount] = 1;
+        mShownEvicted[mShownCount] = false;
+        mShownCount++;
+    }
+
+    /**
+     * Marks an icon as no longer shown by a row. Icons evicted while shown go to the pool once
+     * the last row showing them releases them.
+     * @param icon The icon, as passed to {@link #retain}.
+     */
+    void release(Bitmap icon) {
+        int index = findShown(icon);
+        assert index != NONE;
+        if (index == NONE || --mShownCounts[index] > 0) return;
+        if (mShownEvicted[index]) mBitmapPool.put(icon);
+        mShownCount--;
+        mShownIcons[index] = mShownIcons[mShownCount];
+        mShownCounts[index] = mShownCounts[mShownCount];
+        mShownEvicted[index] = mShownEvicted[mShownCount];
+        mShownIcons[mShownCount] = null;
+    }
+
+    private int findShown(Bitmap icon) {
+        for (int i = 0; i < mShownCount; i++) {
+            if (mShownIcons[i] == icon) return i;
+        }
+        return NONE;
+    }
+
+    /** @return The number of icons in the cache. */
+    int size() {
+        return mSlots.size();
+    }
+
+    /** @return The number of lookups that found an icon. */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /** @return The number of lookups that did not find an icon. */
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    /** @return The number of icons evicted. */
+    int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Halves the maximum size of the cache (evicting icons as needed). Meant for when the system
+     * is low on memory.
+     */
+    void shrink() {
+        mMaxSizeKb /= 2;
+        trimToSize(mMaxSizeKb, /*reuseEvicted=*/false);
+    }
+
+    /**
+     * Frees up memory, as asked to by the system.
+     * @param level The trim level, see {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    void onTrimMemory(int level) {
+        // Pooled bitmaps are only a head start for decoding, so they go first.
+        mBitmapPool.trimToSize(0);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The icons are easy to fetch again, so drop them all.
+            trimToSize(0, /*reuseEvicted=*/false);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            shrink();
+        }
+    }
+
+    /**
+     * Evicts the least recently used icons until the total size is at most |maxSizeKb|.
+     * @param reuseEvicted Whether to hand the evicted icons to the pool for reuse (once no row
+     *                     shows them). Icons evicted to free up memory are not kept around.
+     */
+    private void trimToSize(int maxSizeKb, boolean reuseEvicted) {
+        while (mSizeKb > maxSizeKb && mLeastRecent != NONE) {
+            int slot = mLeastRecent;
+            unlink(slot);
+            mSlots.remove(mIds[slot]);
+            mSizeKb -= mSizesKb[slot];
+            if (reuseEvicted) {
+                int shown = findShown(mIcons[slot]);
+                if (shown == NONE) {
+                    mBitmapPool.put(mIcons[slot]);
+                } else {
+                    mShownEvicted[shown] = true;
+                }
+            }
+            mIcons[slot] = null;
+            mNext[slot] = mFreeSlot;
+            mFreeSlot = slot;
+            mEvictionCount++;
+        }
+    }
+
+    private int allocateSlot() {
+        if (mFreeSlot != NONE) {
+            int slot = mFreeSlot;
+            mFreeSlot = mNext[slot];
+            return slot;
+        }
+        if (mSlotCount == mIds.length) {
+            int capacity = Math.max(16, mSlotCount * 2);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mIcons = Arrays.copyOf(mIcons, capacity);
+            mSizesKb = Arrays.copyOf(mSizesKb, capacity);
+            mPrevious = Arrays.copyOf(mPrevious, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+        }
+        return mSlotCount++;
+    }
+
+    private void moveToFront(int slot) {
+        if (slot == mMostRecent) return;
+        unlink(slot);
+        linkAtFront(slot);
+    }
+
+    private void linkAtFront(int slot) {
+        mPrevious[slot] = NONE;
+        mNext[slot] = mMostRecent;
+        if (mMostRecent != NONE) mPrevious[mMostRecent] = slot;
+        mMostRecent = slot;
+        if (mLeastRecent == NONE) mLeastRecent = slot;
+    }
+
+    private void unlink(int slot) {
+        int previous = mPrevious[slot];
+        int next = mNext[slot];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else {
+            mMostRecent = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        } else {
+            mLeastRecent = previous;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+
+import org.chromium.base.ThreadUtils;
+import org.chromium.base.TraceEvent;
+import org.chromium.base.metrics.RecordHistogram;
+import org.chromium.base.task.PostTask;
+import org.chromium.base.task.TaskTraits;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Loads contact icons in batches. Instead of starting a worker task per row, the icons requested
+ * while a frame is being laid out are gathered up and fetched with a single query (one
+ * {@link FetchIconWorkerTask}) once the frame is done.
+ *
+ * The batches are queued here, rather than in the thread pool, and only a few of them run at a
+ * time. Rows on screen go before rows prefetched ahead of the scroll, and the latest batches go
+ * first (rows bound a while ago have likely been scrolled past since). Requests cancelled while
+ * queued are dropped from their batch, and a contact is only ever queued once: asking for it
+ * again moves the earlier requests along to the new batch.
+ *
+ * Nor is a contact fetched twice at the same time. Asking for a contact that is being fetched
+ * joins the fetch, and the icon is handed to every request still waiting for it when it arrives
+ * (requests can still be cancelled, for example when the row showing the contact is recycled).
+ *
+ * Must only be used on the UI thread.
+ */
+class ContactIconLoader {
+    /**
+     * How urgently an icon is needed.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Priority.VISIBLE, Priority.PREFETCH})
+    @interface Priority {
+        // For a row on screen.
+        int VISIBLE = 0;
+        // For a row about to come into view.
+        int PREFETCH = 1;
+    }
+
+    private static final int PRIORITY_COUNT = 2;
+
+    // The traits to run the batches of each priority with.
+    private static final TaskTraits[] PRIORITY_TRAITS = {
+            TaskTraits.USER_BLOCKING_MAY_BLOCK, TaskTraits.USER_VISIBLE_MAY_BLOCK};
+
+    // The maximum number of requests to put in a batch (which is fetched with one query, well
+    // within the limit SQLite puts on the number of query arguments).
+    private static final int MAX_BATCH_SIZE = 64;
+
+    // The maximum number of batches being fetched at the same time.
+    private static final int MAX_RUNNING_BATCHES = 2;
+
+    // The number of Binder transactions it takes (at the very least) to run a query against the
+    // contacts provider: one for the query itself (which also fills the first cursor window) and
+    // one for closing the cursor.
+    private static final int TRANSACTIONS_PER_QUERY = 2;
+
+    /**
+     * The requests fetched with a single query.
+     */
+    private static class Batch implements FetchIconWorkerTask.IconRetrievedCallback {
+        final @Priority int mPriority;
+
+        // Identifies the batch while it is queued.
+        final int mSerial;
+
+        // The contact each request is for, and who to tell when the icon arrives (null once the
+        // request has been cancelled, or moved to another batch).
+        long[] mContactIds = new long[8];
+        FetchIconWorkerTask.IconRetrievedCallback[] mCallbacks =
+                new FetchIconWorkerTask.IconRetrievedCallback[8];
+        int mCount;
+
+        // The number of requests not cancelled (or moved).
+        int mLiveCount;
+
+        // When the batch was queued (in milliseconds since boot).
+        long mQueuedTimeMs;
+
+        // The number of requests sharing an icon fetched (or being fetched) for another request.
+        int mDuplicateCount;
+
+        Batch(@Priority int priority, int serial) {
+            mPriority = priority;
+            mSerial = serial;
+        }
+
+        void add(long contactId, FetchIconWorkerTask.IconRetrievedCallback callback) {
+            if (mCount == mContactIds.length) {
+                mContactIds = Arrays.copyOf(mContactIds, mCount * 2);
+                mCallbacks = Arrays.copyOf(mCallbacks, mCount * 2);
+            }
+            mContactIds[mCount] = contactId;
+            mCallbacks[mCount] = callback;
+            mCount++;
+            mLiveCount++;
+        }
+
+        /** @return Whether the batch holds a (live) request for the contact. */
+        boolean contains(long contactId) {
+            for (int i = 0; i < mCount; i++) {
+                if (mContactIds[i] == contactId && mCallbacks[i] != null) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Moves the requests for a contact to another batch.
+         * @param contactId The contact.
+         * @param batch The batch to move the requests to.
+         */
+        void moveRequests(long contactId, Batch batch) {
+            for (int i = 0; i < mCount; i++) {
+                if (mContactIds[i] != contactId || mCallbacks[i] == null) continue;
+                batch.add(contactId, mCallbacks[i]);
+                mCallbacks[i] = null;
+                mLiveCount--;
+            }
+        }
+
+        /** @return The ids of the contacts to fetch, without duplicates (or cancellations). */
+        long[] getUniqueContactIds() {
+            LongIntMap seen = new LongIntMap(mLiveCount);
+            long[] ids = new long[mLiveCount];
+            int count = 0;
+            for (int i = 0; i < mCount; i++) {
+                long id = mContactIds[i];
+                if (mCallbacks[i] == null || seen.containsKey(id)) continue;
+                seen.put(id, count);
+                ids[count++] = id;
+            }
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        }
+
+        boolean cancel(long contactId, FetchIconWorkerTask.IconRetrievedCallback callback) {
+            for (int i = 0; i < mCount; i++) {
+                if (mContactIds[i] == contactId && mCallbacks[i] == callback) {
+                    mCallbacks[i] = null;
+                    mLiveCount--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // FetchIconWorkerTask.IconRetrievedCallback:
+
+        @Override
+        public void iconRetrieved(Bitmap icon, long contactId) {
+            for (int i = 0; i < mCount; i++) {
+                if (mContactIds[i] != contactId || mCallbacks[i] == null) continue;
+                FetchIconWorkerTask.IconRetrievedCallback callback = mCallbacks[i];
+                mCallbacks[i] = null;
+                mLiveCount--;
+                callback.iconRetrieved(icon, contactId);
+            }
+        }
+    }
+
+    // The content resolver to use for the lookups.
+    private final ContentResolver mContentResolver;
+
+    // The size (width and height, in pixels) the icons are shown at.
+    private final int mIconSizePx;
+
+    // The pool of bitmaps to decode the icons into.
+    private final IconBitmapPool mBitmapPool;
+
+    // The requests made since the last batch was queued.
+    private long[] mPendingIds = new long[MAX_BATCH_SIZE];
+    private FetchIconWorkerTask.IconRetrievedCallback[] mPendingCallbacks =
+            new FetchIconWorkerTask.IconRetrievedCallback[MAX_BATCH_SIZE];
+    private int[] mPendingPriorities = new int[MAX_BATCH_SIZE];
+    private int mPendingCount;
+
+    // Whether queuing the pending requests has been scheduled.
+    private boolean mFlushScheduled;
+
+    // The batches waiting to be fetched, per priority, oldest first.
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Batch>[] mQueued = new ArrayList[PRIORITY_COUNT];
+
+    // Maps the ids of the contacts with requests in the queue to the serial of their batch.
+    private final LongIntMap mQueuedIds = new LongIntMap();
+
+    // The number of (live) requests in the queue.
+    private int mQueuedRequestCount;
+
+    // The serial of the next batch.
+    private int mNextSerial;
+
+    // The batches being fetched.
+    private final ArrayList<Batch> mRunning = new ArrayList<Batch>();
+
+    // Maps the ids of the contacts being fetched (whose icons have not yet arrived) to the
+    // serial of their batch.
+    private final LongIntMap mRunningIds = new LongIntMap();
+
+    // The number of requests that shared the icon fetched for another request, instead of it
+    // being fetched (and decoded) again.
+    private int mDuplicateDecodesAvoided;
+
+    /**
+     * @param contentResolver The content resolver to use for the lookups.
+     * @param iconSizePx The size (width and height, in pixels) the icons are shown at.
+     * @param bitmapPool The pool of bitmaps to decode the icons into.
+     */
+    ContactIconLoader(ContentResolver contentResolver, int iconSizePx, IconBitmapPool bitmapPool) {
+        mContentResolver = contentResolver;
+        mIconSizePx = iconSizePx;
+        mBitmapPool = bitmapPool;
+        for (int i = 0; i < PRIORITY_COUNT; i++) mQueued[i] = new ArrayList<Batch>();
+    }
+
+    /**
+     * Requests the icon for a contact. The request is queued (along with all other requests
+     * made before then) after the current frame.
+     * @param contactId The id of the contact.
+     * @param priority How urgently the icon is needed.
+     * @param callback Who to tell when the icon has been retrieved. Told exactly once (with a
+     *                 null icon if the contact has none), unless the request is cancelled.
+     */
+    void requestIcon(long contactId, @Priority int priority,
+            FetchIconWorkerTask.IconRetrievedCallback callback) {
+        assert ThreadUtils.runningOnUiThread();
+
+        Batch running = findRunningBatch(contactId);
+        if (running != null) {
+            running.add(contactId, callback);
+            running.mDuplicateCount++;
+            mDuplicateDecodesAvoided++;
+            return;
+        }
+
+        if (mPendingCount == mPendingIds.length) {
+            mPendingIds = Arrays.copyOf(mPendingIds, mPendingCount * 2);
+            mPendingCallbacks = Arrays.copyOf(mPendingCallbacks, mPendingCount * 2);
+            mPendingPriorities = Arrays.copyOf(mPendingPriorities, mPendingCount * 2);
+        }
+        mPendingIds[mPendingCount] = contactId;
+        mPendingCallbacks[mPendingCount] = callback;
+        mPendingPriorities[mPendingCount] = priority;
+        mPendingCount++;
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            PostTask.postTask(TaskTraits.CHOREOGRAPHER_FRAME, this::flush);
+        }
+    }
+
+    /**
+     * Cancels a request made with {@link #requestIcon}. The callback will not be told about the
+     * icon, even if it has already been retrieved (but not yet delivered).
+     * @param contactId The id of the contact.
+     * @param callback The callback the request was made with.
+     */
+    void cancelIconRequest(long contactId, FetchIconWorkerTask.IconRetrievedCallback callback) {
+        assert ThreadUtils.runningOnUiThread();
+
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPendingIds[i] != contactId || mPendingCallbacks[i] != callback) continue;
+            mPendingCount--;
+            System.arraycopy(mPendingIds, i + 1, mPendingIds, i, mPendingCount - i);
+            System.arraycopy(mPendingCallbacks, i + 1, mPendingCallbacks, i, mPendingCount - i);
+            System.arraycopy(mPendingPriorities, i + 1, mPendingPriorities, i, mPendingCount - i);
+            mPendingCallbacks[mPendingCount] = null;
+            return;
+        }
+
+        Batch queued = findQueuedBatch(contactId);
+        if (queued != null && queued.cancel(contactId, callback)) {
+            mQueuedRequestCount--;
+            if (!queued.contains(contactId)) mQueuedIds.remove(contactId);
+            // Nothing left to fetch.
+            if (queued.mLiveCount == 0) mQueued[queued.mPriority].remove(queued);
+            return;
+        }
+
+        for (Batch batch : mRunning) {
+            if (batch.cancel(contactId, callback)) return;
+        }
+    }
+
+    /**
+     * @return The number of requests that shared the icon fetched for another request, instead of
+     *         it being fetched (and decoded) again.
+     */
+    int getDuplicateDecodesAvoided() {
+        return mDuplicateDecodesAvoided;
+    }
+
+    /** @return The number of requests waiting to be fetched. */
+    int getQueuedRequestCount() {
+        return mQueuedRequestCount + mPendingCount;
+    }
+
+    /**
+     * @param contactId The id of a contact.
+     * @return The queued batch with requests for the contact, or null if there is none.
+     */
+    private Batch findQueuedBatch(long contactId) {
+        int serial = mQueuedIds.get(contactId, -1);
+        if (serial == -1) return null;
+        for (ArrayList<Batch> batches : mQueued) {
+            for (int i = batches.size() - 1; i >= 0; i--) {
+                if (batches.get(i).mSerial == serial) return batches.get(i);
+            }
+        }
+        assert false;
+        return null;
+    }
+
+    /**
+     * @param contactId The id of a contact.
+     * @return The batch fetching the icon of the contact, or null if it is not being fetched.
+     */
+    private Batch findRunningBatch(long contactId) {
+        int serial = mRunningIds.get(contactId, -1);
+        if (serial == -1) return null;
+        for (Batch batch : mRunning) {
+            if (batch.mSerial == serial) return batch;
+        }
+        assert false;
+        return null;
+    }
+
+    /**
+     * Queues the pending requests, in batches of at most MAX_BATCH_SIZE, and starts fetching
+     * (if not already fetching as much as allowed).
+     */
+    private void flush() {
+        mFlushScheduled = false;
+        for (@Priority int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            Batch batch = null;
+            for (int i = 0; i < mPendingCount; i++) {
+                if (mPendingPriorities[i] != priority) continue;
+                if (batch == null || batch.mCount >= MAX_BATCH_SIZE) {
+                    if (batch != null) queue(batch);
+                    batch = new Batch(priority, mNextSerial++);
+                }
+                addToQueue(batch, mPendingIds[i], mPendingCallbacks[i]);
+            }
+            if (batch != null) queue(batch);
+        }
+        Arrays.fill(mPendingCallbacks, 0, mPendingCount, null);
+        mPendingCount = 0;
+
+        RecordHistogram.recordCount1000Histogram(
+                "Android.ContactsPicker.Icons.QueueDepth", mQueuedRequestCount);
+        startBatches();
+    }
+
+    /**
+     * Adds a request to a batch about to be queued. Should the contact already be queued, the
+     * requests for it are moved along to the new batch (which goes first), unless they are more
+     * urgent, in which case the new request joins them instead.
+     * @param batch The batch about to be queued.
+     * @param contactId The id of the contact.
+     * @param callback Who to tell when the icon has been retrieved.
+     */
+    private void addToQueue(
+            Batch batch, long contactId, FetchIconWorkerTask.IconRetrievedCallback callback) {
+        if (mQueuedIds.get(contactId, -1) == batch.mSerial) {
+            // Asked for twice in the same frame.
+            batch.add(contactId, callback);
+            return;
+        }
+        Batch queued = findQueuedBatch(contactId);
+        if (queued != null && queued.mPriority < batch.mPriority) {
+            queued.add(contactId, callback);
+            mQueuedRequestCount++;
+            return;
+        }
+        if (queued != null) {
+            int count = queued.mLiveCount;
+            queued.moveRequests(contactId, batch);
+            mQueuedRequestCount -= count - queued.mLiveCount;
+            if (queued.mLiveCount == 0) mQueued[queued.mPriority].remove(queued);
+        }
+        batch.add(contactId, callback);
+        mQueuedIds.put(contactId, batch.mSerial);
+    }
+
+    private void queue(Batch batch) {
+        batch.mQueuedTimeMs = SystemClock.elapsedRealtime();
+        mQueued[batch.mPriority].add(batch);
+        mQueuedRequestCount += batch.mLiveCount;
+    }
+
+    /**
+     * Starts fetching the most urgent batches, latest first, for as long as fewer than
+     * MAX_RUNNING_BATCHES are being fetched.
+     */
+    private void startBatches() {
+        for (ArrayList<Batch> batches : mQueued) {
+            while (mRunning.size() < MAX_RUNNING_BATCHES && !batches.isEmpty()) {
+                start(batches.remove(batches.size() - 1));
+            }
+        }
+    }
+
+    private void start(Batch batch) {
+        long[] contactIds = batch.getUniqueContactIds();
+        for (long contactId : contactIds) {
+            mQueuedIds.remove(contactId);
+            mRunningIds.put(contactId, batch.mSerial);
+        }
+        mQueuedRequestCount -= batch.mLiveCount;
+        if (contactIds.length == 0) return;
+
+        // Requests for the same contact (made before the batch was queued) share the fetch.
+        batch.mDuplicateCount = batch.mLiveCount - contactIds.length;
+        mDuplicateDecodesAvoided += batch.mDuplicateCount;
+
+        mRunning.add(batch);
+        // Spans fetching the batch in the background and delivering the icons on the UI thread.
+        TraceEvent.startAsync("ContactsPicker.FetchIcons", batch.mSerial);
+        FetchIconWorkerTask.IconRetrievedCallback callback = (icon, contactId) -> {
+            mRunningIds.remove(contactId);
+            batch.iconRetrieved(icon, contactId);
+            // The icons are delivered in the order they were asked for.
+            if (contactId != contactIds[contactIds.length - 1]) return;
+            mRunning.remove(batch);
+            TraceEvent.finishAsync("ContactsPicker.FetchIcons", batch.mSerial);
+            RecordHistogram.recordCount100Histogram(
+                    "Android.ContactsPicker.Icons.DuplicateDecodesAvoided",
+                    batch.mDuplicateCount);
+            startBatches();
+        };
+        new FetchIconWorkerTask(contactIds, mIconSizePx, mBitmapPool, mContentResolver, callback)
+                .executeWithTaskTraits(PRIORITY_TRAITS[batch.mPriority]);
+
+        RecordHistogram.recordTimesHistogram("Android.ContactsPicker.Icons.QueueWaitTime",
+                SystemClock.elapsedRealtime() - batch.mQueuedTimeMs);
+
+        // Each request used to be a query (and a worker task) of its own.
+        int requestCount = batch.mLiveCount;
+        int queriesSaved = requestCount - 1;
+        RecordHistogram.recordCount100Histogram(
+                "Android.ContactsPicker.Icons.BatchSize", requestCount);
+        RecordHistogram.recordCount100Histogram(
+                "Android.ContactsPicker.Icons.QueriesSaved", queriesSaved);
+        RecordHistogram.recordCount1000Histogram(
+                "Android.ContactsPicker.Icons.BinderTransactionsSaved",
+                queriesSaved * TRANSACTIONS_PER_QUERY);
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Warms the icon cache ahead of scrolling: while the list scrolls, the icons of the next few rows
+ * (in the direction of the scroll) are requested, so that they are in the cache by the time the
+ * rows come into view. The faster the scroll, the further ahead it looks. When the scroll changes
+ * direction, the requests not yet answered are dropped, as those rows are no longer coming up.
+ *
+ * Must only be used on the UI thread.
+ */
+class ContactIconPrefetcher
+        extends RecyclerView.OnScrollListener implements FetchIconWorkerTask.IconRetrievedCallback {
+    // The number of rows to look ahead when scrolling slowly, and at most.
+    private static final int MIN_PREFETCH_ROWS = 4;
+    private static final int MAX_PREFETCH_ROWS = 48;
+
+    // How far ahead (in time, at the current scroll speed) to look for rows to prefetch. Roughly
+    // the time it takes to fetch a batch of icons.
+    private static final int LOOKAHEAD_MS = 300;
+
+    // The adapter to look up the contacts shown in each row with.
+    private final PickerAdapter mAdapter;
+
+    // The layout manager to find the rows in view with.
+    private final LinearLayoutManager mLayoutManager;
+
+    // The cache to warm up.
+    private final ContactIconCache mIconCache;
+
+    // The loader to fetch the icons with.
+    private final ContactIconLoader mIconLoader;
+
+    // The direction of the last scroll (1 for down, -1 for up, 0 before the first scroll).
+    private int mDirection;
+
+    // The speed of the scroll (in pixels per millisecond), smoothed over the last few scroll
+    // events.
+    private float mVelocityPxPerMs;
+
+    // When the last scroll event arrived (in milliseconds since boot).
+    private long mLastScrollTimeMs;
+
+    // The contacts whose icons have been requested but not yet retrieved.
+    private long[] mPendingIds = new long[MAX_PREFETCH_ROWS];
+    private int mPendingCount;
+
+    // The contacts known to have no icon (which are never worth prefetching again).
+    private final LongIntMap mContactsWithoutIcon = new LongIntMap();
+
+    // The number of icons requested, and the number of requests dropped.
+    private int mPrefetchCount;
+    private int mCancelCount;
+
+    /**
+     * @param adapter The adapter to look up the contacts shown in each row with.
+     * @param layoutManager The layout manager to find the rows in view with.
+     * @param iconCache The cache to warm up.
+     * @param iconLoader The loader to fetch the icons with.
+     */
+    ContactIconPrefetcher(PickerAdapter adapter, LinearLayoutManager layoutManager,
+            ContactIconCache iconCache, ContactIconLoader iconLoader) {
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        mIconCache = iconCache;
+        mIconLoader = iconLoader;
+    }
+
+    /** @return The number of icons requested ahead of time. */
+    int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    /** @return The number of requests dropped because the scroll changed direction. */
+    int getCancelCount() {
+        return mCancelCount;
+    }
+
+    /**
+     * Requests the icons of the rows coming into view next, looking further ahead the faster the
+     * list is scrolling.
+     */
+    private void prefetch() {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) return;
+
+        View row = mLayoutManager.findViewByPosition(last);
+        int rowHeightPx = row != null ? row.getHeight() : 0;
+        int rows = MIN_PREFETCH_ROWS;
+        if (rowHeightPx > 0) rows += (int) (mVelocityPxPerMs * LOOKAHEAD_MS / rowHeightPx);
+        rows = Math.min(rows, MAX_PREFETCH_ROWS);
+
+        int itemCount = mAdapter.getItemCount();
+        int position = mDirection > 0 ? last + 1 : first - 1;
+        for (int i = 0; i < rows && mPendingCount < mPendingIds.length; i++) {
+            if (position < 0 || position >= itemCount) break;
+            ContactDetails contact = mAdapter.getContactAt(position);
+            position += mDirection;
+            if (contact == null) continue;
+
+            long contactId = contact.getId();
+            if (mIconCache.contains(contactId) || mContactsWithoutIcon.containsKey(contactId)
+                    || isPending(contactId)) {
+                continue;
+            }
+            mPendingIds[mPendingCount++] = contactId;
+            mPrefetchCount++;
+            mIconLoader.requestIcon(contactId, ContactIconLoader.Priority.PREFETCH, this);
+        }
+    }
+
+    /**
+     * Drops the requests not yet answered.
+     */
+    private void cancelPending() {
+        for (int i = 0; i < mPendingCount; i++) {
+            mIconLoader.cancelIconRequest(mPendingIds[i], this);
+        }
+        mCancelCount += mPendingCount;
+        mPendingCount = 0;
+    }
+
+    private boolean isPending(long contactId) {
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPendingIds[i] == contactId) return true;
+        }
+        return false;
+    }
+
+    // RecyclerView.OnScrollListener:
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        // The next scroll starts from a standstill.
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) mVelocityPxPerMs = 0;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) return;
+
+        long nowMs = SystemClock.uptimeMillis();
+        int direction = dy > 0 ? 1 : -1;
+        if (direction != mDirection) {
+            cancelPending();
+            mDirection = direction;
+            mVelocityPxPerMs = 0;
+        } else {
+            float velocityPxPerMs = Math.abs(dy) / (float) Math.max(1, nowMs - mLastScrollTimeMs);
+            mVelocityPxPerMs = mVelocityPxPerMs == 0
+                    ? velocityPxPerMs
+                    : (mVelocityPxPerMs + velocityPxPerMs) / 2;
+        }
+        mLastScrollTimeMs = nowMs;
+
+        prefetch();
+    }
+
+    // FetchIconWorkerTask.IconRetrievedCallback:
+
+    @Override
+    public void iconRetrieved(Bitmap icon, long contactId) {
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPendingIds[i] != contactId) continue;
+            mPendingIds[i] = mPendingIds[--mPendingCount];
+            break;
+        }
+
+        if (icon == null) {
+            mContactsWithoutIcon.put(contactId, 0);
+        } else if (!mIconCache.contains(contactId)) {
+            mIconCache.put(contactId, icon);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.support.v4.graphics.drawable.RoundedBitmapDrawable;
 import android.support.v4.graphics.drawable.RoundedBitmapDrawableFactory;
 import android.support.v7.app.AlertDialog; // Android Studio project only.
@@ -125,11 +126,17 @@ public class ContactView extends SelectableItemView<ContactDetails> {
         mModel.set(ModalDialogProperties.TITLE_ICON, getIconDrawable());
         mManager.showDialog(mModel, ModalDialogManager.ModalDialogType.APP);
         */
+        // Icons for contacts without a photo are shared between rows, so the dialog (which may
+        // show the icon at a different size) gets a copy of its own.
+        Drawable icon = getIconDrawable();
+        if (icon instanceof BitmapDrawable) {
+            icon = icon.getConstantState().newDrawable(mContext.getResources());
+        }
         AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
         builder.setMessage(mContactDetails.getContactDetailsAsString(PickerAdapter.includesEmails(), PickerAdapter.includesTelephones()))
                 .setCancelable(true)
                 .setTitle(mDisplayName.getText())
-                .setIcon(getIconDrawable());
+                .setIcon(icon);
         AlertDialog alert = builder.create();
         alert.show();
         return true;
@@ -193,9 +200,7 @@ public class ContactView extends SelectableItemView<ContactDetails> {
                 mPhoneNumberOverflowCount, details.overflowTelephoneNumberCount);
 
         if (icon == null) {
-            icon = mCategoryView.getIconGenerator().generateIconForText(
-                    contactDetails.getDisplayNameAbbreviation());
-            setIconDrawable(new BitmapDrawable(getResources(), icon));
+            setIconDrawable(mCategoryView.getInitialsIconCache().getIcon(displayName));
         } else {
             setIconBitmap(icon);
         }
@@ -212,6 +217,13 @@ public class ContactView extends SelectableItemView<ContactDetails> {
         setIconDrawable(drawable);
     }
 
+    /**
+     * Stops showing the icon (for when the view is recycled, and the icon may be reused).
+     */
+    public void clearIcon() {
+        setIconDrawable(null);
+    }
+
     /**
      * Resets the view to its starting state, which is necessary when the view is about to be
      * re-used.
@@ -4,12 +4,10 @@
 
 package com.example.finnur.contactspicker;
 
-import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.support.v7.widget.RecyclerView.ViewHolder;
 
 import org.chromium.base.VisibleForTesting;
-import org.chromium.base.task.AsyncTask;
 
 /**
  * Holds on to a {@link ContactView} that displays information about a contact.
@@ -19,17 +17,18 @@ public class ContactViewHolder
     // Our parent category.
     private final PickerCategoryView mCategoryView;
 
-    // The Content Resolver to use for the lookup.
-    private final ContentResolver mContentResolver;
-
     // The contact view we are holding on to.
     private final ContactView mItemView;
 
     // The details for the contact.
     private ContactDetails mContact;
 
-    // A worker task for asynchronously retrieving icons off the main thread.
-    private FetchIconWorkerTask mWorkerTask;
+    // Whether an icon request for the contact is outstanding.
+    private boolean mIconRequested;
+
+    // The icon shown (retained from the icon cache, so that it is not reused while shown), or
+    // null if none is.
+    private Bitmap mShownIcon;
 
     // The icon to use when testing.
     private static Bitmap sIconForTest;
@@ -38,22 +37,23 @@ public class ContactViewHolder
      * The PickerBitmapViewHolder.
      * @param itemView The {@link ContactView} for the contact.
      * @param categoryView The {@link PickerCategoryView} showing the contacts.
-     * @param contentResolver The {@link ContentResolver} to use for the lookup.
      */
-    public ContactViewHolder(ContactView itemView, PickerCategoryView categoryView,
-            ContentResolver contentResolver) {
+    public ContactViewHolder(ContactView itemView, PickerCategoryView categoryView) {
         super(itemView);
         mCategoryView = categoryView;
-        mContentResolver = contentResolver;
         mItemView = itemView;
     }
 
     /**
      * Sets the contact details to show in the itemview. If the image is not found in the cache,
-     * an asynchronous worker task is created to load it.
+     * it is requested from the icon loader (which fetches it asynchronously).
      * @param contact The contact details to show.
      */
     public void setContactDetails(ContactDetails contact) {
+        // A request for the same contact (should the row be rebound to it) is kept, rather than
+        // cancelled and made again.
+        boolean sameContact = mContact != null && mContact.getId() == contact.getId();
+        if (mIconRequested && !sameContact) cancelIconRetrieval();
         mContact = contact;
 
         if (sIconForTest != null) {
@@ -61,31 +61,63 @@ public class ContactViewHolder
             return;
         }
 
-        // Android Studio uses LRUCache directly, which suppplies get and put methods without the Bitmap prefix.
+        // Android Studio looks icons up in a ContactIconCache (by contact id), Chrome in the
+        // BitmapCache.
         Bitmap icon = mCategoryView.getIconCache().get(mContact.getId());
-        if (icon == null) {
-            mWorkerTask = new FetchIconWorkerTask(mContact.getId(), mContentResolver, this);
-            mWorkerTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        if (icon != null && mIconRequested) {
+            cancelIconRetrieval();
+        } else if (icon == null && !mIconRequested) {
+            mIconRequested = true;
+            mCategoryView.getIconLoader().requestIcon(
+                    mContact.getId(), ContactIconLoader.Priority.VISIBLE, this);
         }
+        setShownIcon(icon);
         mItemView.initialize(contact, icon);
     }
 
     /**
-     * Cancels the worker task to retrieve the icon.
+     * Called when the row is recycled: stops showing the icon (and releases it for reuse) and
+     * cancels the icon request (if any).
+     */
+    public void onRecycled() {
+        cancelIconRetrieval();
+        if (mShownIcon == null) return;
+        mItemView.clearIcon();
+        setShownIcon(null);
+    }
+
+    /**
+     * Keeps track of the icon shown, retaining it in the icon cache (and releasing the icon shown
+     * before).
+     * @param icon The icon shown (or null if none is).
+     */
+    private void setShownIcon(Bitmap icon) {
+        if (icon == mShownIcon) return;
+        if (icon != null) mCategoryView.getIconCache().retain(icon);
+        if (mShownIcon != null) mCategoryView.getIconCache().release(mShownIcon);
+        mShownIcon = icon;
+    }
+
+    /**
+     * Cancels the request to retrieve the icon (if any).
      */
     public void cancelIconRetrieval() {
-        mWorkerTask.cancel(true);
-        mWorkerTask = null;
+        if (!mIconRequested) return;
+        mCategoryView.getIconLoader().cancelIconRequest(mContact.getId(), this);
+        mIconRequested = false;
     }
 
     // FetchIconWorkerTask.IconRetrievedCallback:
 
     @Override
-    public void iconRetrieved(Bitmap icon, String contactId) {
+    public void iconRetrieved(Bitmap icon, long contactId) {
+        mIconRequested = false;
         if (icon == null) return;
-        if (!contactId.equals(mContact.getId())) return;
+        if (contactId != mContact.getId()) return;
 
-        if (mCategoryView.getIconCache().get(contactId) == null) {
+        // Retained before it is cached, so that making room for it can't hand it out for reuse.
+        setShownIcon(icon);
+        if (!mCategoryView.getIconCache().contains(contactId)) {
             mCategoryView.getIconCache().put(contactId, icon);
         }
 
@@ -0,0 +1,121 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+
+import org.chromium.base.ThreadUtils;
+import org.chromium.base.metrics.RecordHistogram;
+
+/**
+ * Watches the contacts provider for changes while the picker is open, so that the contacts shown
+ * can be brought up to date. Changes tend to come in bursts (a sync touches many contacts, one
+ * at a time), so they are gathered up and passed on as a single refresh, at most once a second.
+ *
+ * Must only be used on the UI thread.
+ */
+class ContactsChangeObserver extends ContentObserver {
+    // How long to wait after the first change of a burst before refreshing, to let the rest of
+    // the burst arrive.
+    private static final long DEBOUNCE_DELAY_MS = 250;
+
+    // The minimum time between two refreshes.
+    private static final long MIN_REFRESH_INTERVAL_MS = 1000;
+
+    /**
+     * An interface to use to tell the client about changes.
+     */
+    interface ContactsChangedCallback {
+        /**
+         * Called (no more than once a second) when contacts have changed since the last call.
+         */
+        void contactsChanged();
+    }
+
+    // The callback to tell about changes.
+    private final ContactsChangedCallback mCallback;
+
+    // Tells the callback about the changes gathered up so far.
+    private final Runnable mRefreshRunnable = this::refresh;
+
+    // When the callback was last told about changes (in milliseconds since boot).
+    private long mLastRefreshMs = -MIN_REFRESH_INTERVAL_MS;
+
+    // Whether telling the callback about changes has been scheduled.
+    private boolean mRefreshScheduled;
+
+    // The number of changes gathered up since the callback was last told.
+    private int mChangeCount;
+
+    // The content resolver the observer is registered with (null when not registered).
+    private ContentResolver mContentResolver;
+
+    /**
+     * @param callback The callback to tell about changes.
+     */
+    ContactsChangeObserver(ContactsChangedCallback callback) {
+        super(ThreadUtils.getUiThreadHandler());
+        mCallback = callback;
+    }
+
+    /**
+     * Starts watching for changes.
+     * @param contentResolver The content resolver to watch.
+     */
+    void register(ContentResolver contentResolver) {
+        assert mContentResolver == null;
+        mContentResolver = contentResolver;
+        mContentResolver.registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI, /*notifyForDescendants=*/true, this);
+    }
+
+    /**
+     * Stops watching for changes (dropping any not yet passed on).
+     */
+    void unregister() {
+        if (mContentResolver == null) return;
+        mContentResolver.unregisterContentObserver(this);
+        mContentResolver = null;
+        ThreadUtils.getUiThreadHandler().removeCallbacks(mRefreshRunnable);
+        mRefreshScheduled = false;
+    }
+
+    /**
+     * Schedules a refresh, as if a change had been observed. Used by the client to ask again
+     * when it was not ready to refresh when last told about changes.
+     */
+    void scheduleRefresh() {
+        if (mRefreshScheduled || mContentResolver == null) return;
+        mRefreshScheduled = true;
+        long delayMs = Math.max(DEBOUNCE_DELAY_MS,
+                mLastRefreshMs + MIN_REFRESH_INTERVAL_MS - SystemClock.elapsedRealtime());
+        ThreadUtils.postOnUiThreadDelayed(mRefreshRunnable, delayMs);
+    }
+
+    private void refresh() {
+        mRefreshScheduled = false;
+        mLastRefreshMs = SystemClock.elapsedRealtime();
+        RecordHistogram.recordCount1000Histogram(
+                "Android.ContactsPicker.Observer.ChangesPerRefresh", mChangeCount);
+        mChangeCount = 0;
+        mCallback.contactsChanged();
+    }
+
+    // ContentObserver:
+
+    @Override
+    public boolean deliverSelfNotifications() {
+        return false;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        mChangeCount++;
+        scheduleRefresh();
+    }
+}
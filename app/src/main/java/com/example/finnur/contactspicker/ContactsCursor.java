@@ -0,0 +1,207 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import org.chromium.base.TraceEvent;
+import org.chromium.base.metrics.RecordHistogram;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thin wrapper around the cursors the Contacts Picker reads from. The columns are declared up
+ * front, as part of a {@link Projection}, so each one knows its index and reading a value never
+ * requires a column lookup (and only the declared columns are copied out of the provider).
+ * When closed, the cursor reports how long the query took, how fast it was read and how many bytes
+ * each row carried.
+ */
+class ContactsCursor implements Closeable {
+    /**
+     * A column in a projection, resolved to its index when the projection is built.
+     */
+    abstract static class Column {
+        // The index of the column within the projection.
+        final int mIndex;
+
+        private Column(int index) {
+            mIndex = index;
+        }
+    }
+
+    /** A column holding string values. */
+    static final class StringColumn extends Column {
+        private StringColumn(int index) {
+            super(index);
+        }
+    }
+
+    /** A column holding integer values (ids, timestamps, etc). */
+    static final class LongColumn extends Column {
+        private LongColumn(int index) {
+            super(index);
+        }
+    }
+
+    /** A column holding binary values (such as photos). */
+    static final class BlobColumn extends Column {
+        private BlobColumn(int index) {
+            super(index);
+        }
+    }
+
+    /**
+     * The list of columns to request from the provider, each one added through a typed accessor.
+     */
+    static final class Projection {
+        private final List<String> mColumnNames = new ArrayList<>();
+        private String[] mColumns;
+
+        StringColumn addString(String name) {
+            return new StringColumn(add(name));
+        }
+
+        LongColumn addLong(String name) {
+            return new LongColumn(add(name));
+        }
+
+        BlobColumn addBlob(String name) {
+            return new BlobColumn(add(name));
+        }
+
+        private int add(String name) {
+            assert mColumns == null : "Columns must be added before the projection is used";
+            mColumnNames.add(name);
+            return mColumnNames.size() - 1;
+        }
+
+        String[] getColumns() {
+            if (mColumns == null) mColumns = mColumnNames.toArray(new String[0]);
+            return mColumns;
+        }
+    }
+
+    // The number of bytes to count for reading an integer value.
+    private static final int LONG_SIZE_BYTES = 8;
+
+    // The cursor being wrapped.
+    private final Cursor mCursor;
+
+    // The name of the query (used as part of the histogram names).
+    private final String mQueryName;
+
+    // The name of the trace event spanning the query (and the reading of its results).
+    private final String mTraceName;
+
+    // The time the query was started (in nanoseconds).
+    private final long mStartTimeNs;
+
+    // The number of rows read so far.
+    private int mRowCount;
+
+    // The (approximate) number of bytes read so far.
+    private long mByteCount;
+
+    private ContactsCursor(Cursor cursor, String queryName, String traceName, long startTimeNs) {
+        mCursor = cursor;
+        mQueryName = queryName;
+        mTraceName = traceName;
+        mStartTimeNs = startTimeNs;
+    }
+
+    /**
+     * Queries a content provider for the columns in a projection.
+     * @param contentResolver The content resolver to query.
+     * @param uri The URI to query.
+     * @param projection The columns to return.
+     * @param selection The selection clause (or null to return all rows).
+     * @param selectionArgs The arguments to bind to the selection clause (can be null).
+     * @param sortOrder The sort order (or null for the default order).
+     * @param queryName The name to report metrics under, for example "Data".
+     * @return The cursor, or null if the query failed. The trace event for the query ends when
+     *         the cursor is closed.
+     */
+    @Nullable
+    static ContactsCursor query(ContentResolver contentResolver, Uri uri, Projection projection,
+            @Nullable String selection, @Nullable String[] selectionArgs,
+            @Nullable String sortOrder, String queryName) {
+        String traceName = "ContactsCursor.query." + queryName;
+        TraceEvent.begin(traceName);
+        long startTimeNs = System.nanoTime();
+        Cursor cursor = contentResolver.query(
+                uri, projection.getColumns(), selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            TraceEvent.end(traceName);
+            return null;
+        }
+        return new ContactsCursor(cursor, queryName, traceName, startTimeNs);
+    }
+
+    /** @return The number of rows in the cursor. */
+    int getCount() {
+        return mCursor.getCount();
+    }
+
+    /**
+     * Moves to the next row.
+     * @return Whether there was a next row.
+     */
+    boolean moveToNext() {
+        if (!mCursor.moveToNext()) return false;
+        mRowCount++;
+        return true;
+    }
+
+    /** @return The string value of a column in the current row. */
+    String getString(StringColumn column) {
+        String value = mCursor.getString(column.mIndex);
+        // Strings are UTF-16 on the Java side.
+        if (value != null) mByteCount += 2 * value.length();
+        return value;
+    }
+
+    /** @return The integer value of a column in the current row. */
+    long getLong(LongColumn column) {
+        mByteCount += LONG_SIZE_BYTES;
+        return mCursor.getLong(column.mIndex);
+    }
+
+    /** @return The binary value of a column in the current row. */
+    byte[] getBlob(BlobColumn column) {
+        byte[] value = mCursor.getBlob(column.mIndex);
+        if (value != null) mByteCount += value.length;
+        return value;
+    }
+
+    /**
+     * Closes the cursor and records how long the query (and reading its results) took, how fast
+     * it was read and how much data each row carried. Unlike the other timings of the picker, the
+     * duration is not split by the number of contacts (see {@link ContactsPickerMetrics}), as
+     * cursors are read before that number is known (and most queries only return some of them).
+     */
+    @Override
+    public void close() {
+        mCursor.close();
+        TraceEvent.end(mTraceName,
+                TraceEvent.enabled() ? "rows=" + mRowCount + " bytes=" + mByteCount : null);
+        if (mRowCount == 0) return;
+
+        long elapsedMs = Math.max(1, (System.nanoTime() - mStartTimeNs) / 1000000);
+        RecordHistogram.recordTimesHistogram(
+                "Android.ContactsPicker.Cursor.Duration." + mQueryName, elapsedMs);
+        RecordHistogram.recordCountHistogram(
+                "Android.ContactsPicker.Cursor.RowsPerSecond." + mQueryName,
+                (int) Math.min(Integer.MAX_VALUE, mRowCount * 1000L / elapsedMs));
+        RecordHistogram.recordCount100000Histogram(
+                "Android.ContactsPicker.Cursor.BytesPerRow." + mQueryName,
+                (int) (mByteCount / mRowCount));
+    }
+}
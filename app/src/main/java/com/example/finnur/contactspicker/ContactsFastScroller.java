@@ -0,0 +1,187 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.chromium.base.ApiCompatibilityUtils;
+
+/**
+ * An overlay for the list of contacts, showing the letters of the alphabetical index (see
+ * {@link ContactsSectionIndex}) along its right edge. Touching (or dragging along) the letters
+ * jumps straight to the first contact listed under the letter, and shows the letter in a bubble.
+ * Touches anywhere else go through to the list.
+ *
+ * Only shown for lists long enough to need it, and not while showing search results.
+ */
+class ContactsFastScroller extends View {
+    // The minimum number of contacts for the index to be shown.
+    private static final int MIN_CONTACTS = 50;
+
+    // The width of the strip along the right edge showing the letters, and the size of them.
+    private static final int TRACK_WIDTH_DP = 24;
+    private static final int LABEL_TEXT_SIZE_DP = 11;
+
+    // The size of the bubble showing the letter jumped to, its distance from the strip, and the
+    // size of the letter.
+    private static final int BUBBLE_RADIUS_DP = 32;
+    private static final int BUBBLE_MARGIN_DP = 16;
+    private static final int BUBBLE_TEXT_SIZE_DP = 32;
+
+    // The adapter providing the index, and the layout manager to scroll with.
+    private final PickerAdapter mAdapter;
+    private final LinearLayoutManager mLayoutManager;
+
+    private final Paint mLabelPaint;
+    private final Paint mBubblePaint;
+    private final Paint mBubbleTextPaint;
+
+    private final float mTrackWidthPx;
+    private final float mBubbleRadiusPx;
+    private final float mBubbleMarginPx;
+
+    // The section jumped to while the letters are being touched (or -1), and where the touch is.
+    private int mTouchedSection = -1;
+    private float mTouchY;
+
+    // Holds the letter to draw (so that drawing does not allocate a string per letter).
+    private final char[] mLabel = new char[1];
+
+    /**
+     * @param context The context to use.
+     * @param adapter The adapter providing the index.
+     * @param layoutManager The layout manager of the list, to scroll with.
+     */
+    ContactsFastScroller(
+            Context context, PickerAdapter adapter, LinearLayoutManager layoutManager) {
+        super(context);
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+
+        Resources resources = context.getResources();
+        float density = resources.getDisplayMetrics().density;
+        mTrackWidthPx = TRACK_WIDTH_DP * density;
+        mBubbleRadiusPx = BUBBLE_RADIUS_DP * density;
+        mBubbleMarginPx = BUBBLE_MARGIN_DP * density;
+
+        mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLabelPaint.setColor(ApiCompatibilityUtils.getColor(resources, R.color.modern_grey_700));
+        mLabelPaint.setTextSize(LABEL_TEXT_SIZE_DP * density);
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        mLabelPaint.setFakeBoldText(true);
+
+        mBubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mBubblePaint.setColor(ApiCompatibilityUtils.getColor(resources, R.color.modern_blue_600));
+
+        mBubbleTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mBubbleTextPaint.setColor(Color.WHITE);
+        mBubbleTextPaint.setTextSize(BUBBLE_TEXT_SIZE_DP * density);
+        mBubbleTextPaint.setTextAlign(Paint.Align.CENTER);
+
+        // The letters (and which of them to show) change along with the contacts.
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                invalidate();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                invalidate();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                invalidate();
+            }
+        });
+        setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_NO);
+    }
+
+    /** @return The index to show, or null if none should be shown. */
+    private ContactsSectionIndex getIndex() {
+        ContactsSectionIndex index = mAdapter.getSectionIndex();
+        if (index == null || index.getSectionCount() < 2
+                || mAdapter.getItemCount() < MIN_CONTACTS) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Scrolls the list to the section shown at a given height.
+     * @param index The index shown.
+     * @param y The height (in pixels, from the top of the view).
+     */
+    private void jumpTo(ContactsSectionIndex index, float y) {
+        int count = index.getSectionCount();
+        int section = Math.max(0, Math.min(count - 1, (int) (y * count / getHeight())));
+        mTouchY = y;
+        if (section != mTouchedSection) {
+            mTouchedSection = section;
+            mLayoutManager.scrollToPositionWithOffset(mAdapter.getPositionForSection(section), 0);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        ContactsSectionIndex index = getIndex();
+        if (index == null) return;
+
+        int count = index.getSectionCount();
+        float sectionHeight = getHeight() / (float) count;
+        float textSize = mLabelPaint.getTextSize();
+        // When the letters don't all fit, only every n-th one is shown (they can still all be
+        // jumped to).
+        int step = (int) Math.ceil(textSize * 1.2f / sectionHeight);
+        float x = getWidth() - mTrackWidthPx / 2;
+        for (int section = 0; section < count; section += step) {
+            mLabel[0] = index.getSectionLabel(section);
+            float y = (section + 0.5f) * sectionHeight + textSize / 3;
+            canvas.drawText(mLabel, 0, 1, x, y, mLabelPaint);
+        }
+
+        if (mTouchedSection == -1 || mTouchedSection >= count) return;
+        float bubbleX = getWidth() - mTrackWidthPx - mBubbleMarginPx - mBubbleRadiusPx;
+        float bubbleY = Math.max(mBubbleRadiusPx, Math.min(getHeight() - mBubbleRadiusPx, mTouchY));
+        canvas.drawCircle(bubbleX, bubbleY, mBubbleRadiusPx, mBubblePaint);
+        mLabel[0] = index.getSectionLabel(mTouchedSection);
+        canvas.drawText(mLabel, 0, 1, bubbleX, bubbleY + mBubbleTextPaint.getTextSize() / 3,
+                mBubbleTextPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        ContactsSectionIndex index = getIndex();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // Anything but the letters is left to the list.
+                if (index == null || event.getX() < getWidth() - mTrackWidthPx) return false;
+                getParent().requestDisallowInterceptTouchEvent(true);
+                jumpTo(index, event.getY());
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (index == null || mTouchedSection == -1) return false;
+                jumpTo(index, event.getY());
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mTouchedSection = -1;
+                invalidate();
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -5,36 +5,105 @@
 package com.example.finnur.contactspicker;
 
 import android.content.ContentResolver;
-import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
 
+import androidx.annotation.Nullable;
+
 import org.chromium.base.ThreadUtils;
+import org.chromium.base.TraceEvent;
+import org.chromium.base.VisibleForTesting;
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.base.task.AsyncTask;
+import org.chromium.base.task.PostTask;
+import org.chromium.base.task.TaskTraits;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
- * A worker task to retrieve images for contacts.
+ * A worker task to retrieve the details for all contacts. In streaming mode, contacts are
+ * delivered in sorted chunks of growing size, so that the first screenful can be shown long
+ * before the whole address book has been read.
+ *
+ * When given a snapshot file (see {@link ContactsSnapshot}), the contacts saved there are
+ * delivered first, and then checked against the contacts provider in the background. Only if
+ * anything has changed since are the contacts fetched again (see {@link ContactsSyncEngine}).
+ * The same goes for contacts already showing that need updating (see setContactsToUpdate()).
  */
 class ContactsFetcherWorkerTask extends AsyncTask<ArrayList<ContactDetails>> {
-    private static final String[] PROJECTION = {
-            ContactsContract.Contacts._ID, ContactsContract.Contacts.LOOKUP_KEY,
-            ContactsContract.Contacts.DISPLAY_NAME_PRIMARY,
-    };
+    // The projection for the (legacy) query against the Contacts table.
+    private static final ContactsCursor.Projection PROJECTION = new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn CONTACTS_ID =
+            PROJECTION.addLong(ContactsContract.Contacts._ID);
+    private static final ContactsCursor.StringColumn CONTACTS_DISPLAY_NAME =
+            PROJECTION.addString(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY);
+
+    // The projection for the single-pass query against the Data table.
+    private static final ContactsCursor.Projection DATA_PROJECTION =
+            new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn DATA_CONTACT_ID =
+            DATA_PROJECTION.addLong(ContactsContract.Data.CONTACT_ID);
+    private static final ContactsCursor.StringColumn DATA_DISPLAY_NAME =
+            DATA_PROJECTION.addString(ContactsContract.Data.DISPLAY_NAME_PRIMARY);
+    private static final ContactsCursor.StringColumn DATA_SORT_KEY =
+            DATA_PROJECTION.addString(ContactsContract.Data.SORT_KEY_PRIMARY);
+    private static final ContactsCursor.StringColumn DATA_MIMETYPE =
+            DATA_PROJECTION.addString(ContactsContract.Data.MIMETYPE);
+    private static final ContactsCursor.StringColumn DATA_VALUE =
+            DATA_PROJECTION.addString(ContactsContract.Data.DATA1);
+
+    // The Data table sort order. Sorting by name first delivers contacts in display order, the
+    // contact id then keeps all the rows for one contact together (even when two contacts share
+    // a name) and the value sorts emails and telephone numbers within a contact. The sort key is
+    // also kept in the store, so that ContactDetails compare in the same order.
+    private static final String DATA_SORT_ORDER = ContactsContract.Data.SORT_KEY_PRIMARY
+            + " ASC, " + ContactsContract.Data.CONTACT_ID + " ASC, "
+            + ContactsContract.Data.DATA1 + " ASC";
+
+    // The number of contacts to deliver in the first chunk when streaming (enough to fill the
+    // first screen).
+    private static final int FIRST_CHUNK_SIZE = 32;
+
+    // The maximum number of contacts to deliver in a single chunk when streaming. Chunk sizes
+    // double from FIRST_CHUNK_SIZE until they reach this size.
+    private static final int MAX_CHUNK_SIZE = 2048;
+
+    // Contact ids are row ids, so this is never a valid id.
+    private static final long INVALID_ID = -1;
 
     /**
      * An interface to use to communicate back the results to the client.
      */
     public interface ContactsRetrievedCallback {
         /**
-         * A callback to define to receive the contact details.
+         * A callback to define to receive the contact details (when not streaming).
          * @param contacts The contacts retrieved.
          */
         void contactsRetrieved(ArrayList<ContactDetails> contacts);
+
+        /**
+         * A callback to define to receive the contact details in chunks (when streaming). Chunks
+         * are delivered in sort order, each one continuing where the previous one left off.
+         * @param contacts The next chunk of contacts retrieved (can be empty).
+         * @param lastChunk Whether this is the last chunk to be delivered.
+         */
+        void contactsChunkRetrieved(ArrayList<ContactDetails> contacts, boolean lastChunk);
+
+        /**
+         * A callback to define to receive the contact details that replace the ones already
+         * delivered (from a snapshot, or before the contacts changed).
+         * @param contacts The contacts retrieved.
+         */
+        void contactsReplaced(ArrayList<ContactDetails> contacts);
+
+        /**
+         * A callback to define to receive the changes to the contact details already delivered
+         * (from a snapshot, or before the contacts changed).
+         * @param delta The changes, along with the up to date contacts.
+         */
+        void contactsUpdated(ContactsSyncEngine.Delta delta);
     }
 
     // The content resolver to use for looking up contacts.
@@ -52,6 +121,32 @@ class ContactsFetcherWorkerTask extends AsyncTask<ArrayList<ContactDetails>> {
     // Whether to include telephones in the data fetched.
     private final boolean mIncludeTel;
 
+    // Whether to deliver the contacts in chunks, as they are read.
+    private final boolean mStreaming;
+
+    // The file to deliver the contacts from first (and to save them to), or null.
+    private final File mSnapshotFile;
+
+    // Whether contacts were delivered from the snapshot file (set in the background).
+    private volatile boolean mLoadedFromSnapshot;
+
+    // The contacts to bring up to date (instead of fetching them all), and the state of the
+    // provider when they were fetched. See setContactsToUpdate().
+    private ArrayList<ContactDetails> mContactsToUpdate;
+    private ContactsSnapshot.Stamp mStampToUpdate;
+
+    // The state of the provider when the contacts delivered were fetched (set in the background).
+    private ContactsSnapshot.Stamp mStamp;
+
+    // Whether the result replaces the contacts already delivered.
+    private boolean mReplacesContacts;
+
+    // The changes to the contacts already delivered, if only those were fetched.
+    private ContactsSyncEngine.Delta mDelta;
+
+    // All contacts delivered so far, when they need saving to the snapshot file (or null).
+    private ArrayList<ContactDetails> mFetchedContacts;
+
     /**
      * A ContactsFetcherWorkerTask constructor.
      * @param contentResolver The ContentResolver to use to fetch the contacts data.
@@ -59,20 +154,60 @@ class ContactsFetcherWorkerTask extends AsyncTask<ArrayList<ContactDetails>> {
      * @param includeNames Whether names were requested by the website.
      * @param includeEmails Whether to include emails in the data fetched.
      * @param includeTel Whether to include telephones in the data fetched.
+     * @param streaming Whether to deliver the contacts in chunks (see
+     *                  {@link ContactsRetrievedCallback#contactsChunkRetrieved}) instead of all at
+     *                  once.
+     * @param snapshotFile The file to deliver the contacts from first (and to save them to for
+     *                     next time), or null to always fetch from the contacts provider. Only
+     *                     supported when streaming.
      */
     public ContactsFetcherWorkerTask(ContentResolver contentResolver,
             ContactsRetrievedCallback callback, boolean includeNames, boolean includeEmails,
-            boolean includeTel) {
+            boolean includeTel, boolean streaming, @Nullable File snapshotFile) {
+        assert snapshotFile == null || streaming;
         mContentResolver = contentResolver;
         mCallback = callback;
         mIncludeNames = includeNames;
         mIncludeEmails = includeEmails;
         mIncludeTel = includeTel;
+        mStreaming = streaming;
+        mSnapshotFile = ContactsSnapshot.isSupported() ? snapshotFile : null;
+    }
+
+    /**
+     * @return Whether the first contacts delivered came from the snapshot file. Only final once
+     *         the first contacts have been delivered.
+     */
+    boolean loadedFromSnapshot() {
+        return mLoadedFromSnapshot;
+    }
+
+    /**
+     * Brings a list of contacts up to date instead of fetching them all (see
+     * {@link ContactsRetrievedCallback#contactsUpdated} and
+     * {@link ContactsRetrievedCallback#contactsReplaced}). Must be called before executing.
+     * @param contacts The contacts, in display order.
+     * @param stamp The state of the provider when the contacts were fetched (or null if not
+     *              known, in which case the contacts are fetched again in full).
+     */
+    void setContactsToUpdate(
+            ArrayList<ContactDetails> contacts, @Nullable ContactsSnapshot.Stamp stamp) {
+        mContactsToUpdate = contacts;
+        mStampToUpdate = stamp;
+    }
+
+    /**
+     * @return The state of the provider when the contacts delivered were fetched, or null if not
+     *         known. Only available once the last of the contacts have been delivered.
+     */
+    @Nullable
+    ContactsSnapshot.Stamp getStamp() {
+        return mStamp;
     }
 
     /**
      * Fetches the details for all contacts (in a background thread).
-     * @return The icon representing a contact.
+     * @return The contacts retrieved or, when streaming, the last chunk of contacts retrieved.
      */
     @Override
     protected ArrayList<ContactDetails> doInBackground() {
@@ -80,93 +215,341 @@ class ContactsFetcherWorkerTask extends AsyncTask<ArrayList<ContactDetails>> {
 
         if (isCancelled()) return null;
 
-        return getAllContacts();
+        ArrayList<ContactDetails> contacts = null;
+        TraceEvent.begin("ContactsFetcherWorkerTask.doInBackground");
+        try {
+            if (mContactsToUpdate != null) {
+                contacts = updateContacts(mContactsToUpdate, mStampToUpdate);
+            } else if (mSnapshotFile != null) {
+                contacts = fetchContactsUsingSnapshot();
+            } else {
+                contacts = mStreaming ? fetchContacts(FIRST_CHUNK_SIZE, /*updatedSince=*/-1)
+                                      : getAllContacts();
+            }
+            return contacts;
+        } finally {
+            TraceEvent.end("ContactsFetcherWorkerTask.doInBackground",
+                    TraceEvent.enabled() && contacts != null ? "contacts=" + contacts.size()
+                                                             : null);
+        }
+    }
+
+    /**
+     * Delivers the contacts from the snapshot file (if there is one) and then brings them up to
+     * date, saving the contacts fetched to the snapshot file for next time.
+     * @return The last chunk of contacts, or the result of {@link #updateContacts} if the
+     *         contacts were delivered from the snapshot.
+     */
+    private ArrayList<ContactDetails> fetchContactsUsingSnapshot() {
+        ContactsSnapshot snapshot =
+                ContactsSnapshot.read(mSnapshotFile, mIncludeNames, mIncludeEmails, mIncludeTel);
+        RecordHistogram.recordBooleanHistogram(
+                "Android.ContactsPicker.Snapshot.Available", snapshot != null);
+        if (snapshot != null) {
+            mLoadedFromSnapshot = true;
+            postChunk(snapshot.getContacts());
+            if (!snapshot.getContacts().isEmpty()) {
+                prepareCollationKeys(snapshot.getContacts().get(0).getStore());
+            }
+            return updateContacts(snapshot.getContacts(), snapshot.getStamp());
+        }
+
+        // The stamp is taken before fetching, so that changes made while the contacts are being
+        // fetched make the snapshot out of date (and are picked up next time).
+        ContactsSnapshot.Stamp stamp = ContactsSnapshot.queryStamp(mContentResolver);
+        if (isCancelled()) return null;
+
+        mFetchedContacts = new ArrayList<ContactDetails>();
+        ArrayList<ContactDetails> lastChunk = fetchContacts(FIRST_CHUNK_SIZE, /*updatedSince=*/-1);
+        if (lastChunk == null) return null;
+        ArrayList<ContactDetails> contacts = mFetchedContacts;
+        contacts.addAll(lastChunk);
+        mFetchedContacts = null;
+
+        mStamp = stamp;
+        saveSnapshot(contacts, stamp);
+        return lastChunk;
+    }
+
+    /**
+     * Brings contacts already delivered up to date, fetching only the contacts that have changed
+     * when possible (and all contacts otherwise).
+     * @param contacts The contacts, in display order.
+     * @param since The state of the provider when the contacts were fetched (or null if not
+     *              known).
+     * @return All contacts if they replace the ones delivered, or null if the changes were
+     *         patched into the contacts delivered (see mDelta).
+     */
+    private ArrayList<ContactDetails> updateContacts(
+            List<ContactDetails> contacts, @Nullable ContactsSnapshot.Stamp since) {
+        // As above, the stamp is taken before looking for changes.
+        ContactsSnapshot.Stamp stamp = ContactsSnapshot.isSupported()
+                ? ContactsSnapshot.queryStamp(mContentResolver)
+                : null;
+        if (isCancelled()) return null;
+        mStamp = stamp;
+
+        ContactsSyncEngine.Delta delta = null;
+        if (stamp != null && since != null) {
+            boolean upToDate = stamp.equals(since);
+            RecordHistogram.recordBooleanHistogram(
+                    "Android.ContactsPicker.Sync.UpToDate", upToDate);
+            if (upToDate) {
+                mDelta = new ContactsSyncEngine.Delta(
+                        new ArrayList<ContactDetails>(contacts), new int[0], new int[0]);
+                return null;
+            }
+            delta = new ContactsSyncEngine(mContentResolver, this).sync(contacts, since, stamp);
+            if (isCancelled()) return null;
+            RecordHistogram.recordBooleanHistogram(
+                    "Android.ContactsPicker.Sync.Patched", delta != null);
+        }
+
+        ArrayList<ContactDetails> result = null;
+        if (delta != null) {
+            mDelta = delta;
+        } else {
+            // The contacts are already showing, so there's nothing to gain from streaming.
+            mReplacesContacts = true;
+            result = getAllContacts();
+            if (result == null) return null;
+        }
+
+        saveSnapshot(delta != null ? delta.getContacts() : result, stamp);
+        return result;
+    }
+
+    /**
+     * Saves contacts to the snapshot file (if any) for next time, in the background.
+     * @param contacts The contacts, in display order.
+     * @param stamp The state of the provider when the contacts were fetched (nothing is saved if
+     *              null).
+     */
+    private void saveSnapshot(
+            final List<ContactDetails> contacts, @Nullable final ContactsSnapshot.Stamp stamp) {
+        if (mSnapshotFile == null || stamp == null) return;
+        PostTask.postTask(TaskTraits.BEST_EFFORT_MAY_BLOCK, () -> {
+            ContactsSnapshot.write(
+                    mSnapshotFile, contacts, stamp, mIncludeNames, mIncludeEmails, mIncludeTel);
+        });
+    }
+
+    /**
+     * Fetches all known contacts.
+     * @return The contact list as an array.
+     */
+    public ArrayList<ContactDetails> getAllContacts() {
+        return fetchContacts(Integer.MAX_VALUE, /*updatedSince=*/-1);
+    }
+
+    /**
+     * Fetches the contacts updated after a given time (in a background thread).
+     * @param timestamp The time (in milliseconds since the epoch) to fetch contacts updated after.
+     * @return The contacts updated since (that have something to share), in display order, or
+     *         null if cancelled.
+     */
+    ArrayList<ContactDetails> fetchContactsUpdatedSince(long timestamp) {
+        return fetchContacts(Integer.MAX_VALUE, timestamp);
+    }
+
+    /**
+     * Fetches all known contacts with a single query against the Data table, merging names,
+     * emails and telephone numbers in one walk over the cursor. The rows for each contact arrive
+     * together and in sort order, so no lookup tables are needed to join them.
+     * @param chunkSize The number of contacts to deliver in the first chunk. When smaller than
+     *                  the number of contacts, chunks are posted to the UI thread as they fill up
+     *                  (doubling in size each time, up to MAX_CHUNK_SIZE).
+     * @param updatedSince If not negative, only fetch the contacts updated after this time (in
+     *                     milliseconds since the epoch).
+     * @return The last chunk of contacts (all contacts, if only one chunk was needed).
+     */
+    private ArrayList<ContactDetails> fetchContacts(int chunkSize, long updatedSince) {
+        List<String> mimeTypes = new ArrayList<String>(3);
+        // Names are only needed for contacts that have neither emails nor telephone numbers (the
+        // display name is a column on every row).
+        if (mIncludeNames) {
+            mimeTypes.add(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE);
+        }
+        if (mIncludeEmails) mimeTypes.add(ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE);
+        if (mIncludeTel) mimeTypes.add(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+        if (mimeTypes.isEmpty()) return new ArrayList<ContactDetails>();
+
+        StringBuilder selection =
+                new StringBuilder(ContactsContract.Data.MIMETYPE).append(" IN (?");
+        for (int i = 1; i < mimeTypes.size(); i++) selection.append(",?");
+        selection.append(')');
+        List<String> selectionArgs = mimeTypes;
+        if (updatedSince >= 0) {
+            selection.append(" AND ")
+                    .append(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP)
+                    .append(" > ?");
+            selectionArgs = new ArrayList<String>(mimeTypes);
+            selectionArgs.add(Long.toString(updatedSince));
+        }
+
+        ContactsCursor cursor = ContactsCursor.query(mContentResolver,
+                ContactsContract.Data.CONTENT_URI, DATA_PROJECTION, selection.toString(),
+                selectionArgs.toArray(new String[0]), DATA_SORT_ORDER,
+                updatedSince >= 0 ? "DataUpdated" : "Data");
+        if (cursor == null) return new ArrayList<ContactDetails>();
+
+        // The contacts are written straight into a columnar store, one chunk at a time.
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        long id = INVALID_ID;
+        try {
+            while (cursor.moveToNext()) {
+                long rowId = cursor.getLong(DATA_CONTACT_ID);
+                if (rowId != id) {
+                    // Contacts with nothing to share are dropped (unless names were requested).
+                    if (id != INVALID_ID) builder.endContact(mIncludeNames);
+                    if (builder.getCount() >= chunkSize) {
+                        if (isCancelled()) return null;
+                        ContactsStore store = builder.build();
+                        postChunk(store.createContacts());
+                        prepareCollationKeys(store);
+                        chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+                    }
+                    id = rowId;
+                    builder.beginContact(id, cursor.getString(DATA_DISPLAY_NAME),
+                            cursor.getString(DATA_SORT_KEY));
+                }
+
+                String mimeType = cursor.getString(DATA_MIMETYPE);
+                if (ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                    builder.addEmail(cursor.getString(DATA_VALUE));
+                } else if (ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(
+                                   mimeType)) {
+                    builder.addPhoneNumber(cursor.getString(DATA_VALUE));
+                }
+            }
+            if (id != INVALID_ID) builder.endContact(mIncludeNames);
+        } finally {
+            cursor.close();
+        }
+
+        ContactsStore store = builder.build();
+        prepareCollationKeys(store);
+        return store.createContacts();
+    }
+
+    /**
+     * Works out the collation keys of a store in the background, once its contacts are on their
+     * way to the client, so that sorting them later doesn't (on the UI thread, for the selection).
+     * @param store The store.
+     */
+    private static void prepareCollationKeys(final ContactsStore store) {
+        PostTask.postTask(TaskTraits.BEST_EFFORT, store::prepareCollationKeys);
+    }
+
+    /**
+     * Posts a chunk of contacts to the client (on the UI thread).
+     * @param chunk The contacts to deliver.
+     */
+    private void postChunk(final ArrayList<ContactDetails> chunk) {
+        if (mFetchedContacts != null) mFetchedContacts.addAll(chunk);
+        ThreadUtils.postOnUiThread(() -> {
+            if (isCancelled()) return;
+            try (TraceEvent e = TraceEvent.scoped("ContactsFetcherWorkerTask.deliverChunk",
+                         TraceEvent.enabled() ? "contacts=" + chunk.size() : null)) {
+                mCallback.contactsChunkRetrieved(chunk, false);
+            }
+        });
     }
 
     /**
      * Fetches specific details for contacts.
      * @param source The source URI to use for the lookup.
      * @param idColumn The name of the id column.
-     * @param idColumn The name of the data column.
+     * @param dataColumn The name of the data column.
      * @param sortOrder The sort order. Data must be sorted by CONTACT_ID but can be additionally
      *                  sorted also.
-     * @return A map of ids to contact details (as ArrayList).
+     * @param queryName The name to report cursor metrics under.
+     * @param details The list to add the details for each contact to.
+     * @return An index from contact id to the position of its details in |details|.
      */
-    private Map<String, ArrayList<String>> getDetails(
-            Uri source, String idColumn, String dataColumn, String sortOrder) {
-        Map<String, ArrayList<String>> map = new HashMap<String, ArrayList<String>>();
-
-        Cursor cursor = mContentResolver.query(source, null, null, null, sortOrder);
-        ArrayList<String> list = new ArrayList<String>();
-        String key = "";
-        String value;
+    private LongIntMap getDetails(Uri source, String idColumn, String dataColumn,
+            String sortOrder, String queryName, List<ArrayList<String>> details) {
+        ContactsCursor.Projection projection = new ContactsCursor.Projection();
+        ContactsCursor.LongColumn idValue = projection.addLong(idColumn);
+        ContactsCursor.StringColumn dataValue = projection.addString(dataColumn);
+        ContactsCursor cursor = ContactsCursor.query(
+                mContentResolver, source, projection, null, null, sortOrder, queryName);
+        LongIntMap index = new LongIntMap(cursor.getCount());
+        ArrayList<String> list = null;
+        long key = INVALID_ID;
         while (cursor.moveToNext()) {
-            String id = cursor.getString(cursor.getColumnIndex(idColumn));
-            value = cursor.getString(cursor.getColumnIndex(dataColumn));
-            if (key.isEmpty()) {
+            long id = cursor.getLong(idValue);
+            if (id != key) {
                 key = id;
-                list.add(value);
-            } else {
-                if (key.equals(id)) {
-                    list.add(value);
-                } else {
-                    map.put(key, list);
-                    list = new ArrayList<String>();
-                    list.add(value);
-                    key = id;
-                }
+                list = new ArrayList<String>();
+                index.put(key, details.size());
+                details.add(list);
             }
+            list.add(cursor.getString(dataValue));
         }
-        map.put(key, list);
         cursor.close();
 
-        return map;
+        return index;
     }
 
     /**
-     * Fetches all known contacts.
+     * Fetches all known contacts the way the picker used to: one query each for emails, telephone
+     * numbers and contacts, joined through indices keyed by contact id. Only kept around so that
+     * the benchmarks can compare it against {@link #getAllContacts}.
      * @return The contact list as an array.
      */
-    public ArrayList<ContactDetails> getAllContacts() {
-        Map<String, ArrayList<String>> emailMap = mIncludeEmails
+    @VisibleForTesting
+    ArrayList<ContactDetails> getAllContactsUsingPerKindQueries() {
+        List<ArrayList<String>> emails = new ArrayList<ArrayList<String>>();
+        LongIntMap emailIndex = mIncludeEmails
                 ? getDetails(ContactsContract.CommonDataKinds.Email.CONTENT_URI,
                         ContactsContract.CommonDataKinds.Email.CONTACT_ID,
                         ContactsContract.CommonDataKinds.Email.DATA,
                         ContactsContract.CommonDataKinds.Email.CONTACT_ID + " ASC, "
-                                + ContactsContract.CommonDataKinds.Email.DATA + " ASC")
+                                + ContactsContract.CommonDataKinds.Email.DATA + " ASC",
+                        "Email", emails)
                 : null;
 
-        Map<String, ArrayList<String>> phoneMap = mIncludeTel
+        List<ArrayList<String>> phoneNumbers = new ArrayList<ArrayList<String>>();
+        LongIntMap phoneIndex = mIncludeTel
                 ? getDetails(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
                         ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
                         ContactsContract.CommonDataKinds.Email.DATA,
                         ContactsContract.CommonDataKinds.Email.CONTACT_ID + " ASC, "
-                                + ContactsContract.CommonDataKinds.Phone.NUMBER + " ASC")
+                                + ContactsContract.CommonDataKinds.Phone.NUMBER + " ASC",
+                        "Phone", phoneNumbers)
                 : null;
 
         // A cursor containing the raw contacts data.
-        Cursor cursor = mContentResolver.query(ContactsContract.Contacts.CONTENT_URI, PROJECTION,
-                null, null, ContactsContract.Contacts.SORT_KEY_PRIMARY + " ASC");
-        if (!cursor.moveToFirst()) return new ArrayList<ContactDetails>();
+        ContactsCursor cursor = ContactsCursor.query(mContentResolver,
+                ContactsContract.Contacts.CONTENT_URI, PROJECTION, null, null,
+                ContactsContract.Contacts.SORT_KEY_PRIMARY + " ASC", "Contacts");
 
         ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>(cursor.getCount());
-        do {
-            String id = cursor.getString(cursor.getColumnIndex(ContactsContract.Contacts._ID));
-            String name = cursor.getString(
-                    cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY));
-            List<String> email = mIncludeEmails ? emailMap.get(id) : null;
-            List<String> tel = mIncludeTel ? phoneMap.get(id) : null;
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(CONTACTS_ID);
+            String name = cursor.getString(CONTACTS_DISPLAY_NAME);
+            int emailPosition = mIncludeEmails ? emailIndex.get(id, -1) : -1;
+            int telPosition = mIncludeTel ? phoneIndex.get(id, -1) : -1;
+            List<String> email = emailPosition != -1 ? emails.get(emailPosition) : null;
+            List<String> tel = telPosition != -1 ? phoneNumbers.get(telPosition) : null;
             if (mIncludeNames || email != null || tel != null)
                 contacts.add(new ContactDetails(id, name, email, tel));
-        } while (cursor.moveToNext());
+        }
 
         cursor.close();
         return contacts;
     }
 
+    @Override
+    protected void onPreExecute() {
+        // Spans the background work and the delivery of the results on the UI thread.
+        TraceEvent.startAsync("ContactsPicker.FetchContacts", hashCode());
+    }
+
     /**
      * Communicates the results back to the client. Called on the UI thread.
-     * @param contacts The contacts retrieved.
+     * @param contacts The contacts retrieved (or the last chunk, when streaming).
      */
     @Override
     protected void onPostExecute(ArrayList<ContactDetails> contacts) {
@@ -174,6 +557,23 @@ class ContactsFetcherWorkerTask extends AsyncTask<ArrayList<ContactDetails>> {
 
         if (isCancelled()) return;
 
-        mCallback.contactsRetrieved(contacts);
+        try (TraceEvent e = TraceEvent.scoped("ContactsFetcherWorkerTask.onPostExecute")) {
+            if (mDelta != null) {
+                mCallback.contactsUpdated(mDelta);
+            } else if (mReplacesContacts) {
+                mCallback.contactsReplaced(contacts);
+            } else if (mStreaming) {
+                mCallback.contactsChunkRetrieved(contacts, true);
+            } else {
+                mCallback.contactsRetrieved(contacts);
+            }
+        } finally {
+            TraceEvent.finishAsync("ContactsPicker.FetchContacts", hashCode());
+        }
+    }
+
+    @Override
+    protected void onCancelled() {
+        TraceEvent.finishAsync("ContactsPicker.FetchContacts", hashCode());
     }
 }
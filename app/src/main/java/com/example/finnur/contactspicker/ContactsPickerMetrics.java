@@ -0,0 +1,57 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import org.chromium.base.metrics.RecordHistogram;
+
+/**
+ * Splits the timing metrics of the picker by the size of the address book. Large address books
+ * are the ones likely to regress, and would be drowned out by the many small ones in a single
+ * histogram, so each timing is recorded in a histogram of its own per contact-count tier (the
+ * tier being the suffix of the histogram name, for example ".Under1000").
+ *
+ * Must only be used on the UI thread (the static methods aside).
+ */
+class ContactsPickerMetrics {
+    // The upper bounds (exclusive) of the contact-count tiers, and the suffixes of the tiers
+    // (with one more suffix, for the contact counts above all bounds).
+    private static final int[] TIER_BOUNDS = {100, 1000, 5000};
+    private static final String[] TIER_SUFFIXES = {
+            ".Under100", ".Under1000", ".Under5000", ".5000OrMore"};
+
+    // The number of contacts in the picker.
+    private int mContactCount;
+
+    /**
+     * @param count The number of contacts.
+     * @return The suffix of the histograms for the tier the number falls in.
+     */
+    static String getContactCountTier(int count) {
+        int tier = 0;
+        while (tier < TIER_BOUNDS.length && count >= TIER_BOUNDS[tier]) tier++;
+        return TIER_SUFFIXES[tier];
+    }
+
+    /**
+     * @param count The number of contacts in the picker (so far, while they are loading).
+     */
+    void setContactCount(int count) {
+        mContactCount = count;
+    }
+
+    /** @return The suffix of the histograms for the number of contacts in the picker. */
+    String getContactCountTier() {
+        return getContactCountTier(mContactCount);
+    }
+
+    /**
+     * Records a time in the histogram for the number of contacts in the picker.
+     * @param name The name of the histogram (without the tier suffix).
+     * @param durationMs The time to record.
+     */
+    void recordTime(String name, long durationMs) {
+        RecordHistogram.recordTimesHistogram(name + getContactCountTier(), durationMs);
+    }
+}
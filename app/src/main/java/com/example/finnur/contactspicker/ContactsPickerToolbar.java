@@ -15,8 +15,6 @@ import org.chromium.chrome.browser.widget.selection.SelectableListToolbar;
 import org.chromium.chrome.browser.widget.selection.SelectionDelegate;
 import org.chromium.ui.widget.ButtonCompat;
 
-import java.util.List;
-
 /**
  * Handles toolbar functionality for the {@ContactsPickerDialog}.
  */
@@ -70,10 +68,10 @@ public class ContactsPickerToolbar extends SelectableListToolbar<ContactDetails>
     }
 
     @Override
-    public void onSelectionStateChange(List<ContactDetails> selectedItems) {
-        super.onSelectionStateChange(selectedItems);
+    public void onSelectionChanged(SelectionDelegate.SelectionChange<ContactDetails> change) {
+        super.onSelectionChanged(change);
 
-        int selectCount = selectedItems.size();
+        int selectCount = change.getSelectedItemCount();
         ButtonCompat done = findViewById(R.id.done);
         done.setEnabled(selectCount > 0);
 
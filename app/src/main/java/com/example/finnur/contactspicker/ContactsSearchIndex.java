@@ -0,0 +1,285 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A search index over a list of contacts, matching a query against the display names, emails and
+ * telephone numbers of each contact (case-insensitively, anywhere in the string).
+ *
+ * The lowercased text of all contacts is kept back to back in a single char array, and a trigram
+ * index maps every three-character sequence to the (sorted) contacts containing it. A query is
+ * answered by checking only the contacts listed for its rarest trigram. In addition, the results
+ * of the last query are kept, so a query that extends it (the common case when typing) only needs
+ * to re-check the contacts that matched before.
+ *
+ * The index is expensive to build, so that should be done off the UI thread, but is immutable
+ * afterwards (apart from the cached results), so searching is cheap. Searches must not be run
+ * concurrently.
+ */
+class ContactsSearchIndex {
+    // The searchable fields of each contact.
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_EMAILS = 1;
+    private static final int FIELD_TELEPHONES = 2;
+    private static final int FIELD_COUNT = 3;
+
+    // Separates multiple emails (or telephone numbers) within a field.
+    private static final char SEPARATOR = '\n';
+
+    // The length of the character sequences indexed.
+    private static final int GRAM_LENGTH = 3;
+
+    // How many candidates to check between checks for cancellation.
+    private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+
+    /**
+     * Allows a search to be abandoned part way through.
+     */
+    interface CancellationCheck {
+        /** @return Whether the search has been cancelled (and its results are not needed). */
+        boolean isCancelled();
+    }
+
+    // The locale to use for lowercasing the contacts and the queries.
+    private final Locale mLocale;
+
+    // The number of contacts indexed.
+    private final int mContactCount;
+
+    // The lowercased text of all fields of all contacts, back to back.
+    private final char[] mText;
+
+    // Field f of contact c spans mText[mFieldOffsets[c * FIELD_COUNT + f]] up to (but not
+    // including) mText[mFieldOffsets[c * FIELD_COUNT + f + 1]].
+    private final int[] mFieldOffsets;
+
+    // Maps each trigram to its slot in mPostingOffsets.
+    private final LongIntMap mGramSlots;
+
+    // The contacts containing the trigram in slot s are mPostings[mPostingOffsets[s]] up to (but
+    // not including) mPostings[mPostingOffsets[s + 1]], in ascending order.
+    private final int[] mPostingOffsets;
+    private final int[] mPostings;
+
+    // The last query answered, the fields it was matched against and its results (null if there
+    // has been no query yet).
+    private String mLastQuery;
+    private boolean mLastIncludeEmails;
+    private boolean mLastIncludeTelephones;
+    private int[] mLastResults;
+
+    private ContactsSearchIndex(Locale locale, int contactCount, char[] text, int[] fieldOffsets,
+            LongIntMap gramSlots, int[] postingOffsets, int[] postings) {
+        mLocale = locale;
+        mContactCount = contactCount;
+        mText = text;
+        mFieldOffsets = fieldOffsets;
+        mGramSlots = gramSlots;
+        mPostingOffsets = postingOffsets;
+        mPostings = postings;
+    }
+
+    /**
+     * Builds the index. This is expensive and should not be done on the UI thread.
+     * @param contacts The contacts to index. Search results are positions in this list.
+     * @param locale The locale to use for lowercasing.
+     * @return The index.
+     */
+    static ContactsSearchIndex build(List<ContactDetails> contacts, Locale locale) {
+        int contactCount = contacts.size();
+        int[] fieldOffsets = new int[contactCount * FIELD_COUNT + 1];
+        StringBuilder text = new StringBuilder();
+        for (int c = 0; c < contactCount; c++) {
+            ContactDetails contact = contacts.get(c);
+            int field = c * FIELD_COUNT;
+            text.append(contact.getDisplayName().toLowerCase(locale));
+            fieldOffsets[field + FIELD_EMAILS] = text.length();
+            for (int i = 0; i < contact.getEmailCount(); i++) {
+                if (i > 0) text.append(SEPARATOR);
+                text.append(contact.getEmail(i).toLowerCase(locale));
+            }
+            fieldOffsets[field + FIELD_TELEPHONES] = text.length();
+            for (int i = 0; i < contact.getPhoneNumberCount(); i++) {
+                if (i > 0) text.append(SEPARATOR);
+                text.append(contact.getPhoneNumber(i).toLowerCase(locale));
+            }
+            fieldOffsets[field + FIELD_COUNT] = text.length();
+        }
+        char[] chars = new char[text.length()];
+        text.getChars(0, chars.length, chars, 0);
+
+        // First pass: assign a slot to each trigram and count the contacts containing it. A
+        // contact is counted once per trigram, no matter how often the trigram appears in it.
+        LongIntMap gramSlots = new LongIntMap();
+        int[] counts = new int[64];
+        int[] lastContact = new int[64];
+        for (int c = 0; c < contactCount; c++) {
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                int end = fieldOffsets[c * FIELD_COUNT + f + 1];
+                for (int i = fieldOffsets[c * FIELD_COUNT + f]; i + GRAM_LENGTH <= end; i++) {
+                    long gram = gram(chars, i);
+                    int slot = gramSlots.get(gram, -1);
+                    if (slot == -1) {
+                        slot = gramSlots.size();
+                        gramSlots.put(gram, slot);
+                        if (slot == counts.length) {
+                            counts = Arrays.copyOf(counts, slot * 2);
+                            lastContact = Arrays.copyOf(lastContact, slot * 2);
+                        }
+                        counts[slot] = 0;
+                        lastContact[slot] = -1;
+                    }
+                    if (lastContact[slot] != c) {
+                        lastContact[slot] = c;
+                        counts[slot]++;
+                    }
+                }
+            }
+        }
+
+        // Second pass: lay the posting lists out back to back.
+        int slotCount = gramSlots.size();
+        int[] postingOffsets = new int[slotCount + 1];
+        for (int s = 0; s < slotCount; s++) postingOffsets[s + 1] = postingOffsets[s] + counts[s];
+        int[] postings = new int[postingOffsets[slotCount]];
+        int[] next = Arrays.copyOf(postingOffsets, slotCount);
+        Arrays.fill(lastContact, -1);
+        for (int c = 0; c < contactCount; c++) {
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                int end = fieldOffsets[c * FIELD_COUNT + f + 1];
+                for (int i = fieldOffsets[c * FIELD_COUNT + f]; i + GRAM_LENGTH <= end; i++) {
+                    int slot = gramSlots.get(gram(chars, i), -1);
+                    if (lastContact[slot] != c) {
+                        lastContact[slot] = c;
+                        postings[next[slot]++] = c;
+                    }
+                }
+            }
+        }
+
+        return new ContactsSearchIndex(
+                locale, contactCount, chars, fieldOffsets, gramSlots, postingOffsets, postings);
+    }
+
+    /** @return The number of contacts indexed. */
+    int getContactCount() {
+        return mContactCount;
+    }
+
+    /**
+     * Finds the contacts matching a query. Display names are always searched, emails and
+     * telephone numbers only when asked for.
+     * @param query The query (must not be empty).
+     * @param includeEmails Whether to search the emails.
+     * @param includeTelephones Whether to search the telephone numbers.
+     * @return The positions (in the list the index was built from) of the matching contacts, in
+     *         ascending order.
+     */
+    int[] search(String query, boolean includeEmails, boolean includeTelephones) {
+        return search(query, includeEmails, includeTelephones, null);
+    }
+
+    /**
+     * Same as {@link #search(String, boolean, boolean)}, but can be cancelled.
+     * @param cancellationCheck Checked periodically while searching (can be null).
+     * @return The matching contacts, or null if the search was cancelled.
+     */
+    int[] search(String query, boolean includeEmails, boolean includeTelephones,
+            CancellationCheck cancellationCheck) {
+        assert query.length() > 0;
+        String lowerQuery = query.toLowerCase(mLocale);
+        if (lowerQuery.equals(mLastQuery) && includeEmails == mLastIncludeEmails
+                && includeTelephones == mLastIncludeTelephones) {
+            return mLastResults;
+        }
+        char[] needle = lowerQuery.toCharArray();
+
+        // Every contact matching the query contains all of its trigrams, so only the contacts
+        // containing the rarest of them need checking.
+        int[] candidates = null;
+        int candidatesStart = 0;
+        int candidatesEnd = mContactCount;
+        if (needle.length >= GRAM_LENGTH) {
+            for (int i = 0; i + GRAM_LENGTH <= needle.length; i++) {
+                int slot = mGramSlots.get(gram(needle, i), -1);
+                if (slot == -1) {
+                    return remember(lowerQuery, includeEmails, includeTelephones, new int[0]);
+                }
+                int length = mPostingOffsets[slot + 1] - mPostingOffsets[slot];
+                if (candidates == null || length < candidatesEnd - candidatesStart) {
+                    candidates = mPostings;
+                    candidatesStart = mPostingOffsets[slot];
+                    candidatesEnd = mPostingOffsets[slot + 1];
+                }
+            }
+        }
+
+        // A query extending the last one (over the same fields, or fewer) can only match
+        // contacts that matched the last one.
+        if (mLastResults != null && lowerQuery.contains(mLastQuery)
+                && (!includeEmails || mLastIncludeEmails)
+                && (!includeTelephones || mLastIncludeTelephones)
+                && mLastResults.length < candidatesEnd - candidatesStart) {
+            candidates = mLastResults;
+            candidatesStart = 0;
+            candidatesEnd = mLastResults.length;
+        }
+
+        int[] results = new int[candidatesEnd - candidatesStart];
+        int count = 0;
+        for (int i = candidatesStart; i < candidatesEnd; i++) {
+            boolean checkCancellation = (i - candidatesStart) % CANCELLATION_CHECK_INTERVAL == 0;
+            if (checkCancellation && cancellationCheck != null
+                    && cancellationCheck.isCancelled()) {
+                return null;
+            }
+            int contact = candidates == null ? i : candidates[i];
+            if (matches(contact, needle, includeEmails, includeTelephones)) {
+                results[count++] = contact;
+            }
+        }
+        return remember(lowerQuery, includeEmails, includeTelephones,
+                count == results.length ? results : Arrays.copyOf(results, count));
+    }
+
+    private int[] remember(
+            String lowerQuery, boolean includeEmails, boolean includeTelephones, int[] results) {
+        mLastQuery = lowerQuery;
+        mLastIncludeEmails = includeEmails;
+        mLastIncludeTelephones = includeTelephones;
+        mLastResults = results;
+        return results;
+    }
+
+    private boolean matches(
+            int contact, char[] needle, boolean includeEmails, boolean includeTelephones) {
+        int field = contact * FIELD_COUNT;
+        return contains(field + FIELD_NAME, needle)
+                || (includeEmails && contains(field + FIELD_EMAILS, needle))
+                || (includeTelephones && contains(field + FIELD_TELEPHONES, needle));
+    }
+
+    /** @return Whether the given field (of a given contact) contains |needle|. */
+    private boolean contains(int field, char[] needle) {
+        int last = mFieldOffsets[field + 1] - needle.length;
+        char first = needle[0];
+        for (int i = mFieldOffsets[field]; i <= last; i++) {
+            if (mText[i] != first) continue;
+            int j = 1;
+            while (j < needle.length && mText[i + j] == needle[j]) j++;
+            if (j == needle.length) return true;
+        }
+        return false;
+    }
+
+    /** @return The trigram starting at |chars[start]|, packed into a long. */
+    private static long gram(char[] chars, int start) {
+        return ((long) chars[start] << 32) | ((long) chars[start + 1] << 16) | chars[start + 2];
+    }
+}
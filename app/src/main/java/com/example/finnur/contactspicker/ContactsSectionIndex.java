@@ -0,0 +1,236 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An alphabetical index of a (sorted) list of contacts: the sections of the list (one per first
+ * letter of the contacts provider's sort key, which is usually the display name) and the position
+ * where each one starts, for jumping straight to a letter. The section each contact belongs in is
+ * worked out when its details are fetched (see {@link ContactsStore}), and the index is kept up
+ * to date as contacts are streamed in or change, without going over the whole list again.
+ *
+ * The list is kept as runs of contacts in the same section. Contacts are sorted by their sort
+ * keys, which puts keys starting with the same letter next to each other, so there are about as
+ * many runs as there are sections. Should a letter show up in more than one run (which collation
+ * rules that treat accented letters as letters of their own can cause), its section starts at
+ * the first one.
+ *
+ * Must only be used on the UI thread.
+ */
+class ContactsSectionIndex {
+    // The section for names that don't start with a letter.
+    static final char OTHER = '#';
+
+    // The runs of contacts in the same section, in list order: the section label and the number
+    // of contacts in the run.
+    private char[] mRunLabels = new char[32];
+    private int[] mRunLengths = new int[32];
+    private int mRunCount;
+
+    // The number of contacts indexed.
+    private int mSize;
+
+    // The sections, in list order: the label, and the position of the first contact.
+    private char[] mSectionLabels = new char[32];
+    private int[] mSectionPositions = new int[32];
+    private int mSectionCount;
+
+    /**
+     * Works out which section a contact belongs in. Only looks at the first character of the
+     * sort key, ignoring case and accents.
+     * @param sortKey The contacts provider's sort key for the contact.
+     * @return The label of the section.
+     */
+    static char getSectionLabel(String sortKey) {
+        if (sortKey == null || sortKey.isEmpty()) return OTHER;
+        char first = sortKey.charAt(0);
+        if (first > 0x7f) {
+            // Decompose accented letters, so that the accent comes after the base letter.
+            first = Normalizer.normalize(sortKey.substring(0, 1), Normalizer.Form.NFD).charAt(0);
+        }
+        return Character.isLetter(first) ? Character.toUpperCase(first) : OTHER;
+    }
+
+    /**
+     * Indexes a new list of contacts.
+     * @param contacts The contacts, sorted.
+     */
+    void reset(List<ContactDetails> contacts) {
+        mRunCount = 0;
+        mSize = 0;
+        append(contacts);
+    }
+
+    /**
+     * Indexes contacts added to the end of the list.
+     * @param contacts The contacts added, sorted.
+     */
+    void append(List<ContactDetails> contacts) {
+        for (int i = 0; i < contacts.size(); i++) {
+            char label = contacts.get(i).getSectionLabel();
+            if (mRunCount > 0 && mRunLabels[mRunCount - 1] == label) {
+                mRunLengths[mRunCount - 1]++;
+            } else {
+                addRun(mRunCount, label, 1);
+            }
+            mSize++;
+        }
+        updateSections();
+    }
+
+    /**
+     * Brings the index up to date after contacts were removed from, and inserted into, the list.
+     * @param removedPositions The positions (in the old list) of the contacts removed, ascending.
+     * @param insertedPositions The positions (in the new list) of the contacts inserted,
+     *                          ascending.
+     * @param contacts The new list.
+     */
+    void update(int[] removedPositions, int[] insertedPositions, List<ContactDetails> contacts) {
+        // From the bottom up, so that the positions still to be removed stay put.
+        for (int i = removedPositions.length - 1; i >= 0; i--) removeContact(removedPositions[i]);
+        for (int position : insertedPositions) {
+            insertContact(position, contacts.get(position).getSectionLabel());
+        }
+        assert mSize == contacts.size();
+        updateSections();
+    }
+
+    /** @return The number of sections. */
+    int getSectionCount() {
+        return mSectionCount;
+    }
+
+    /**
+     * @param section The section (between 0 and getSectionCount() - 1).
+     * @return The label of the section.
+     */
+    char getSectionLabel(int section) {
+        return mSectionLabels[section];
+    }
+
+    /**
+     * @param section The section (between 0 and getSectionCount() - 1).
+     * @return The position (in the list of contacts) of the first contact in the section.
+     */
+    int getPositionForSection(int section) {
+        return mSectionPositions[section];
+    }
+
+    /**
+     * @param position A position in the list of contacts.
+     * @return The section the contact at that position is listed under.
+     */
+    int getSectionForPosition(int position) {
+        // Sections start in ascending order, so the last one starting at (or before) |position|.
+        int index = Arrays.binarySearch(mSectionPositions, 0, mSectionCount, position);
+        if (index < 0) index = -index - 2;
+        return Math.max(0, index);
+    }
+
+    /**
+     * Adds a contact to the runs.
+     * @param position The position of the contact in the list (after inserting it).
+     * @param label The section of the contact.
+     */
+    private void insertContact(int position, char label) {
+        mSize++;
+        int run = 0;
+        int start = 0;
+        while (run < mRunCount && start + mRunLengths[run] < position) {
+            start += mRunLengths[run++];
+        }
+        // |position| is now within run |run|, or right after it.
+        if (run < mRunCount && mRunLabels[run] == label) {
+            mRunLengths[run]++;
+            return;
+        }
+        int end = run < mRunCount ? start + mRunLengths[run] : start;
+        if (position == end && run + 1 < mRunCount && mRunLabels[run + 1] == label) {
+            mRunLengths[run + 1]++;
+            return;
+        }
+        if (run == mRunCount || position == end) {
+            addRun(run == mRunCount ? run : run + 1, label, 1);
+            return;
+        }
+        if (position == start) {
+            addRun(run, label, 1);
+            return;
+        }
+        // Split the run around the new contact.
+        int before = position - start;
+        addRun(run + 1, mRunLabels[run], mRunLengths[run] - before);
+        mRunLengths[run] = before;
+        addRun(run + 1, label, 1);
+    }
+
+    /**
+     * Removes a contact from the runs.
+     * @param position The position of the contact in the list.
+     */
+    private void removeContact(int position) {
+        mSize--;
+        int run = 0;
+        int start = 0;
+        while (start + mRunLengths[run] <= position) start += mRunLengths[run++];
+        if (--mRunLengths[run] > 0) return;
+
+        // The run is gone, which may leave two runs of the same section next to each other.
+        deleteRun(run);
+        if (run > 0 && run < mRunCount && mRunLabels[run - 1] == mRunLabels[run]) {
+            mRunLengths[run - 1] += mRunLengths[run];
+            deleteRun(run);
+        }
+    }
+
+    private void addRun(int run, char label, int length) {
+        if (mRunCount == mRunLabels.length) {
+            mRunLabels = Arrays.copyOf(mRunLabels, mRunCount * 2);
+            mRunLengths = Arrays.copyOf(mRunLengths, mRunCount * 2);
+        }
+        System.arraycopy(mRunLabels, run, mRunLabels, run + 1, mRunCount - run);
+        System.arraycopy(mRunLengths, run, mRunLengths, run + 1, mRunCount - run);
+        mRunLabels[run] = label;
+        mRunLengths[run] = length;
+        mRunCount++;
+    }
+
+    private void deleteRun(int run) {
+        mRunCount--;
+        System.arraycopy(mRunLabels, run + 1, mRunLabels, run, mRunCount - run);
+        System.arraycopy(mRunLengths, run + 1, mRunLengths, run, mRunCount - run);
+    }
+
+    /**
+     * Works out the sections from the runs: the first run of each label starts a section.
+     */
+    private void updateSections() {
+        if (mSectionLabels.length < mRunCount) {
+            mSectionLabels = new char[mRunLabels.length];
+            mSectionPositions = new int[mRunLabels.length];
+        }
+        mSectionCount = 0;
+        int start = 0;
+        for (int run = 0; run < mRunCount; run++) {
+            if (!hasSection(mRunLabels[run])) {
+                mSectionLabels[mSectionCount] = mRunLabels[run];
+                mSectionPositions[mSectionCount] = start;
+                mSectionCount++;
+            }
+            start += mRunLengths[run];
+        }
+    }
+
+    private boolean hasSection(char label) {
+        for (int i = 0; i < mSectionCount; i++) {
+            if (mSectionLabels[i] == label) return true;
+        }
+        return false;
+    }
+}
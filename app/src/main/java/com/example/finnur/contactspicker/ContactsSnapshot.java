@@ -0,0 +1,350 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.os.Build;
+import android.provider.ContactsContract;
+
+import androidx.annotation.Nullable;
+
+import org.chromium.base.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the contact list kept on disk, so that the picker can show contacts as soon as it
+ * opens (while checking in the background whether anything has changed since).
+ *
+ * The file holds the same columns as a {@link ContactsStore} (ids, names, sort keys, emails and
+ * telephone numbers, in display order) as flat arrays, and is memory-mapped when read, so that
+ * the id and offset columns are copied out in bulk instead of parsed value by value. The snapshot
+ * is stamped with the state of the provider at the time it was taken (see {@link Stamp}).
+ */
+class ContactsSnapshot {
+    private static final String TAG = "ContactsSnapshot";
+
+    // Identifies the file format (and its version).
+    private static final int MAGIC = 0x43505331; // "CPS1".
+    private static final int VERSION = 3;
+
+    // The size of the header, which is followed by the id column (so must be a multiple of 8).
+    private static final int HEADER_SIZE_BYTES = 56;
+
+    // The flags recording which details the snapshot includes.
+    private static final int FLAG_NAMES = 1 << 0;
+    private static final int FLAG_EMAILS = 1 << 1;
+    private static final int FLAG_TELEPHONES = 1 << 2;
+
+    /**
+     * The state of the contacts provider, used to tell whether a snapshot is up to date (and
+     * which contacts have changed since, see {@link ContactsSyncEngine}).
+     */
+    static final class Stamp {
+        // The most recent time (in milliseconds since the epoch) any contact was updated.
+        final long mLastUpdatedTimestamp;
+
+        // The most recent time (in milliseconds since the epoch) any contact was deleted.
+        final long mLastDeletedTimestamp;
+
+        // The total number of contacts.
+        final int mContactCount;
+
+        // When the stamp was taken (in milliseconds since the epoch). Not part of the state of
+        // the provider, so not compared by equals().
+        final long mTakenAtMs;
+
+        Stamp(long lastUpdatedTimestamp, long lastDeletedTimestamp, int contactCount,
+                long takenAtMs) {
+            mLastUpdatedTimestamp = lastUpdatedTimestamp;
+            mLastDeletedTimestamp = lastDeletedTimestamp;
+            mContactCount = contactCount;
+            mTakenAtMs = takenAtMs;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object object) {
+            if (!(object instanceof Stamp)) return false;
+            Stamp other = (Stamp) object;
+            return mLastUpdatedTimestamp == other.mLastUpdatedTimestamp
+                    && mLastDeletedTimestamp == other.mLastDeletedTimestamp
+                    && mContactCount == other.mContactCount;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (mLastUpdatedTimestamp ^ (mLastUpdatedTimestamp >>> 32));
+            hash = hash * 31 + (int) (mLastDeletedTimestamp ^ (mLastDeletedTimestamp >>> 32));
+            return hash * 31 + mContactCount;
+        }
+    }
+
+    // The projection for the stamp queries.
+    private static final ContactsCursor.Projection STAMP_PROJECTION =
+            new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn LAST_UPDATED_TIMESTAMP =
+            STAMP_PROJECTION.addLong(ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP);
+    private static final ContactsCursor.Projection DELETED_STAMP_PROJECTION =
+            new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn LAST_DELETED_TIMESTAMP =
+            DELETED_STAMP_PROJECTION.addLong(
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP);
+
+    // The contacts in the snapshot, in display order.
+    private final ArrayList<ContactDetails> mContacts;
+
+    // The state of the provider when the snapshot was taken.
+    private final Stamp mStamp;
+
+    private ContactsSnapshot(ArrayList<ContactDetails> contacts, Stamp stamp) {
+        mContacts = contacts;
+        mStamp = stamp;
+    }
+
+    /** @return Whether snapshots are supported (the provider only tracks updates as of JB MR2). */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Deletes a snapshot (and any partly written replacement), for when the contacts may no
+     * longer be kept (not on the UI thread).
+     * @param file The snapshot file.
+     */
+    static void delete(File file) {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /** @return The contacts in the snapshot, in display order. */
+    ArrayList<ContactDetails> getContacts() {
+        return mContacts;
+    }
+
+    /** @return The state of the provider when the snapshot was taken. */
+    Stamp getStamp() {
+        return mStamp;
+    }
+
+    /**
+     * Queries the current state of the contacts provider (not on the UI thread).
+     * @param contentResolver The content resolver to query.
+     * @return The stamp, or null if the provider could not be queried.
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static Stamp queryStamp(ContentResolver contentResolver) {
+        long takenAtMs = System.currentTimeMillis();
+        long lastUpdated;
+        int contactCount;
+        ContactsCursor cursor = ContactsCursor.query(contentResolver,
+                ContactsContract.Contacts.CONTENT_URI, STAMP_PROJECTION, null, null,
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC", "Stamp");
+        if (cursor == null) return null;
+        try {
+            lastUpdated = cursor.moveToNext() ? cursor.getLong(LAST_UPDATED_TIMESTAMP) : 0;
+            contactCount = cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+
+        cursor = ContactsCursor.query(contentResolver,
+                ContactsContract.DeletedContacts.CONTENT_URI, DELETED_STAMP_PROJECTION, null,
+                null, ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " DESC",
+                "DeletedStamp");
+        if (cursor == null) return null;
+        try {
+            long lastDeleted = cursor.moveToNext() ? cursor.getLong(LAST_DELETED_TIMESTAMP) : 0;
+            return new Stamp(lastUpdated, lastDeleted, contactCount, takenAtMs);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot from disk (not on the UI thread).
+     * @param file The file to read.
+     * @param includeNames Whether the snapshot must include contacts that only have a name.
+     * @param includeEmails Whether the snapshot must include emails.
+     * @param includeTel Whether the snapshot must include telephone numbers.
+     * @return The snapshot, or null if there is none (or it holds different details).
+     */
+    @Nullable
+    static ContactsSnapshot read(
+            File file, boolean includeNames, boolean includeEmails, boolean includeTel) {
+        if (!file.exists()) return null;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+                FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            if (buffer.getInt() != flags(includeNames, includeEmails, includeTel)) return null;
+            Stamp stamp = new Stamp(
+                    buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getLong());
+            int contactCount = buffer.getInt();
+            int emailCount = buffer.getInt();
+            int phoneCount = buffer.getInt();
+            int charCount = buffer.getInt();
+            // Guards against allocating arrays for counts that a corrupt header made up.
+            if (contactCount < 0 || emailCount < 0 || phoneCount < 0 || charCount < 0
+                    || getSizeBytes(contactCount, emailCount, phoneCount, charCount)
+                            != channel.size()) {
+                return null;
+            }
+            buffer.position(HEADER_SIZE_BYTES);
+
+            long[] ids = new long[contactCount];
+            buffer.asLongBuffer().get(ids);
+            buffer.position(buffer.position() + 8 * contactCount);
+
+            int stringCount = 2 * contactCount + emailCount + phoneCount;
+            int[] emailOffsets = new int[contactCount + 1];
+            int[] phoneOffsets = new int[contactCount + 1];
+            int[] stringOffsets = new int[stringCount + 1];
+            buffer.asIntBuffer().get(emailOffsets).get(phoneOffsets).get(stringOffsets);
+            buffer.position(buffer.position()
+                    + 4 * (emailOffsets.length + phoneOffsets.length + stringOffsets.length));
+
+            char[] chars = new char[charCount];
+            CharBuffer charBuffer = buffer.asCharBuffer();
+            charBuffer.get(chars);
+
+            // Strings can't share memory with the file, so this is the one copy made per value.
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                strings[i] = new String(
+                        chars, stringOffsets[i], stringOffsets[i + 1] - stringOffsets[i]);
+            }
+            String[] names = new String[contactCount];
+            String[] sortKeys = new String[contactCount];
+            String[] emails = new String[emailCount];
+            String[] phoneNumbers = new String[phoneCount];
+            System.arraycopy(strings, 0, names, 0, contactCount);
+            System.arraycopy(strings, contactCount, sortKeys, 0, contactCount);
+            System.arraycopy(strings, 2 * contactCount, emails, 0, emailCount);
+            System.arraycopy(strings, 2 * contactCount + emailCount, phoneNumbers, 0, phoneCount);
+
+            ContactsStore store = ContactsStore.create(
+                    ids, names, sortKeys, emailOffsets, emails, phoneOffsets, phoneNumbers);
+            return new ContactsSnapshot(store.createContacts(), stamp);
+        } catch (IOException | RuntimeException e) {
+            // A truncated or otherwise corrupt file. It will be replaced once the contacts have
+            // been fetched from the provider.
+            Log.w(TAG, "Unable to read contacts snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot to disk (not on the UI thread), replacing the previous one atomically.
+     * @param file The file to write.
+     * @param contacts The contacts, in display order.
+     * @param stamp The state of the provider when the contacts were fetched.
+     * @param includeNames Whether the contacts include those that only have a name.
+     * @param includeEmails Whether the contacts include emails.
+     * @param includeTel Whether the contacts include telephone numbers.
+     */
+    static void write(File file, List<ContactDetails> contacts, Stamp stamp,
+            boolean includeNames, boolean includeEmails, boolean includeTel) {
+        int contactCount = contacts.size();
+        int emailCount = 0;
+        int phoneCount = 0;
+        int charCount = 0;
+        for (ContactDetails contact : contacts) {
+            charCount += contact.getDisplayName().length() + contact.getSortKey().length();
+            for (int i = 0; i < contact.getEmailCount(); i++) {
+                charCount += contact.getEmail(i).length();
+            }
+            for (int i = 0; i < contact.getPhoneNumberCount(); i++) {
+                charCount += contact.getPhoneNumber(i).length();
+            }
+            emailCount += contact.getEmailCount();
+            phoneCount += contact.getPhoneNumberCount();
+        }
+        int stringCount = 2 * contactCount + emailCount + phoneCount;
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+                (int) getSizeBytes(contactCount, emailCount, phoneCount, charCount));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(flags(includeNames, includeEmails, includeTel));
+        buffer.putLong(stamp.mLastUpdatedTimestamp).putLong(stamp.mLastDeletedTimestamp);
+        buffer.putInt(stamp.mContactCount).putLong(stamp.mTakenAtMs);
+        buffer.putInt(contactCount).putInt(emailCount).putInt(phoneCount).putInt(charCount);
+        buffer.position(HEADER_SIZE_BYTES);
+
+        for (ContactDetails contact : contacts) buffer.putLong(contact.getId());
+        int offset = 0;
+        buffer.putInt(offset);
+        for (ContactDetails contact : contacts) buffer.putInt(offset += contact.getEmailCount());
+        offset = 0;
+        buffer.putInt(offset);
+        for (ContactDetails contact : contacts) {
+            buffer.putInt(offset += contact.getPhoneNumberCount());
+        }
+
+        // The string offsets (names, then sort keys, emails and telephone numbers), then the
+        // strings.
+        int stringOffsetsPosition = buffer.position();
+        CharBuffer chars = ((ByteBuffer) buffer.duplicate().position(
+                                    stringOffsetsPosition + 4 * (stringCount + 1)))
+                                   .asCharBuffer();
+        buffer.putInt(0);
+        for (ContactDetails contact : contacts) {
+            chars.put(contact.getDisplayName());
+            buffer.putInt(chars.position());
+        }
+        for (ContactDetails contact : contacts) {
+            chars.put(contact.getSortKey());
+            buffer.putInt(chars.position());
+        }
+        for (ContactDetails contact : contacts) {
+            for (int i = 0; i < contact.getEmailCount(); i++) {
+                chars.put(contact.getEmail(i));
+                buffer.putInt(chars.position());
+            }
+        }
+        for (ContactDetails contact : contacts) {
+            for (int i = 0; i < contact.getPhoneNumberCount(); i++) {
+                chars.put(contact.getPhoneNumber(i));
+                buffer.putInt(chars.position());
+            }
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+            output.write(buffer.array());
+            output.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write contacts snapshot", e);
+            temporaryFile.delete();
+            return;
+        }
+        if (!temporaryFile.renameTo(file)) {
+            Log.w(TAG, "Unable to replace contacts snapshot");
+            temporaryFile.delete();
+        }
+    }
+
+    /** @return The size of a snapshot file holding the given number of values (in bytes). */
+    private static long getSizeBytes(int contactCount, int emailCount, int phoneCount,
+            int charCount) {
+        long stringCount = 2L * contactCount + emailCount + phoneCount;
+        return HEADER_SIZE_BYTES + 8L * contactCount
+                + 4L * (2L * (contactCount + 1) + stringCount + 1) + 2L * charCount;
+    }
+
+    private static int flags(boolean includeNames, boolean includeEmails, boolean includeTel) {
+        return (includeNames ? FLAG_NAMES : 0) | (includeEmails ? FLAG_EMAILS : 0)
+                | (includeTel ? FLAG_TELEPHONES : 0);
+    }
+}
@@ -0,0 +1,389 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import java.text.Collator;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A compact, read-only, columnar store of contact details. Instead of one object (and two lists)
+ * per contact, the details for all contacts are kept in a handful of flat arrays: the emails (and
+ * telephone numbers) for all contacts are stored back to back, and each contact's range within
+ * them is given by an array of offsets. Rows are kept in the order they were added.
+ *
+ * Each row also has the contacts provider's sort key for the contact (usually the display name,
+ * but the phonetic name where there is one), which is what the provider lists contacts by. The
+ * sort keys are compared through {@link Collator} collation keys, so that contacts can be sorted
+ * by comparing bytes instead of running the collation rules on every comparison. The collation
+ * keys are worked out in the background once the store's contacts have been delivered (see
+ * {@link #prepareCollationKeys}), so that they cost neither the time to show the first contacts
+ * nor the UI thread a pause when the selection is sorted. Should contacts be compared before
+ * that, the keys are worked out right then, on whichever thread compares them. The keys follow
+ * the default locale at the time. The section each contact is listed under in the alphabetical
+ * index (see {@link ContactsSectionIndex}) is worked out up front, when the store is created
+ * (which happens on a background thread).
+ *
+ * {@link ContactDetails} objects are lightweight views onto a row in a store.
+ */
+class ContactsStore {
+    /**
+     * Builds a {@link ContactsStore}, one contact at a time. Strings are interned as they are
+     * added, so identical names, emails and numbers share a single instance. A builder can build
+     * several stores in succession (each holding the contacts added since the last one was
+     * built), which is how contacts are streamed in chunks, and interning carries across them.
+     */
+    static class Builder {
+        // The canonical instance for each string seen so far.
+        private final Map<String, String> mInterned = new HashMap<>();
+
+        private long[] mIds = new long[16];
+        private String[] mNames = new String[16];
+        private String[] mSortKeys = new String[16];
+        private int[] mEmailOffsets = new int[17];
+        private String[] mEmails = new String[16];
+        private int[] mPhoneOffsets = new int[17];
+        private String[] mPhoneNumbers = new String[16];
+
+        // The number of contacts, emails and telephone numbers added since the last build.
+        private int mCount;
+        private int mEmailCount;
+        private int mPhoneCount;
+
+        // Whether a contact has been started but not ended.
+        private boolean mInContact;
+
+        /** @return The number of contacts added since the last store was built. */
+        int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Starts adding a contact sorted by its display name. See {@link #beginContact(long,
+         * String, String)}.
+         */
+        void beginContact(long id, String displayName) {
+            beginContact(id, displayName, displayName);
+        }
+
+        /**
+         * Starts adding a contact. Must be followed by {@link #endContact}, once the contact's
+         * emails and telephone numbers have been added.
+         * @param id The unique identifier of the contact.
+         * @param displayName The display name of the contact.
+         * @param sortKey The key the contacts provider sorts the contact by.
+         */
+        void beginContact(long id, String displayName, String sortKey) {
+            assert !mInContact;
+            mInContact = true;
+            if (mCount == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mCount * 2);
+                mNames = Arrays.copyOf(mNames, mCount * 2);
+                mSortKeys = Arrays.copyOf(mSortKeys, mCount * 2);
+                mEmailOffsets = Arrays.copyOf(mEmailOffsets, mCount * 2 + 1);
+                mPhoneOffsets = Arrays.copyOf(mPhoneOffsets, mCount * 2 + 1);
+            }
+            mIds[mCount] = id;
+            mNames[mCount] = intern(displayName);
+            mSortKeys[mCount] = intern(sortKey);
+        }
+
+        /** Adds an email to the current contact. */
+        void addEmail(String email) {
+            assert mInContact;
+            if (mEmailCount == mEmails.length) mEmails = Arrays.copyOf(mEmails, mEmailCount * 2);
+            mEmails[mEmailCount++] = intern(email);
+        }
+
+        /** Adds a telephone number to the current contact. */
+        void addPhoneNumber(String phoneNumber) {
+            assert mInContact;
+            if (mPhoneCount == mPhoneNumbers.length) {
+                mPhoneNumbers = Arrays.copyOf(mPhoneNumbers, mPhoneCount * 2);
+            }
+            mPhoneNumbers[mPhoneCount++] = intern(phoneNumber);
+        }
+
+        /**
+         * Finishes adding the current contact.
+         * @param keepWithoutDetails Whether to keep the contact even if it has neither emails nor
+         *                           telephone numbers. If false, such a contact is dropped.
+         */
+        void endContact(boolean keepWithoutDetails) {
+            assert mInContact;
+            mInContact = false;
+            boolean hasDetails = mEmailCount > mEmailOffsets[mCount]
+                    || mPhoneCount > mPhoneOffsets[mCount];
+            if (!keepWithoutDetails && !hasDetails) return;
+            mCount++;
+            mEmailOffsets[mCount] = mEmailCount;
+            mPhoneOffsets[mCount] = mPhoneCount;
+        }
+
+        /**
+         * Builds a store holding the contacts added since the last store was built (in the order
+         * they were added) and resets the builder for the next batch.
+         * @return The store.
+         */
+        ContactsStore build() {
+            assert !mInContact;
+            ContactsStore store = new ContactsStore(Arrays.copyOf(mIds, mCount),
+                    Arrays.copyOf(mNames, mCount), Arrays.copyOf(mSortKeys, mCount),
+                    Arrays.copyOf(mEmailOffsets, mCount + 1), Arrays.copyOf(mEmails, mEmailCount),
+                    Arrays.copyOf(mPhoneOffsets, mCount + 1),
+                    Arrays.copyOf(mPhoneNumbers, mPhoneCount));
+            mCount = 0;
+            mEmailCount = 0;
+            mPhoneCount = 0;
+            return store;
+        }
+
+        private String intern(String value) {
+            if (value == null) return null;
+            String interned = mInterned.get(value);
+            if (interned != null) return interned;
+            mInterned.put(value, value);
+            return value;
+        }
+    }
+
+    // The id of each contact, by row.
+    private final long[] mIds;
+
+    // The display name of each contact, by row.
+    private final String[] mNames;
+
+    // The contacts provider's sort key for each contact, by row.
+    private final String[] mSortKeys;
+
+    // The emails of the contact in row r are mEmails[mEmailOffsets[r]] up to (but not including)
+    // mEmails[mEmailOffsets[r + 1]].
+    private final int[] mEmailOffsets;
+    private final String[] mEmails;
+
+    // The telephone numbers, laid out the same way as the emails.
+    private final int[] mPhoneOffsets;
+    private final String[] mPhoneNumbers;
+
+    // The collation key of the sort key in row r is mCollationKeys[mCollationKeyOffsets[r]] up to
+    // (but not including) mCollationKeys[mCollationKeyOffsets[r + 1]]. Null until worked out (see
+    // getCollationKeys), the offsets are set before the (volatile) keys are.
+    private int[] mCollationKeyOffsets;
+    private volatile byte[] mCollationKeys;
+
+    // The alphabetical index section of each contact, by row.
+    private final char[] mSectionLabels;
+
+    private ContactsStore(long[] ids, String[] names, String[] sortKeys, int[] emailOffsets,
+            String[] emails, int[] phoneOffsets, String[] phoneNumbers) {
+        mIds = ids;
+        mNames = names;
+        mSortKeys = sortKeys;
+        mEmailOffsets = emailOffsets;
+        mEmails = emails;
+        mPhoneOffsets = phoneOffsets;
+        mPhoneNumbers = phoneNumbers;
+
+        // Sections follow the sort keys, like the list does.
+        mSectionLabels = new char[names.length];
+        for (int row = 0; row < names.length; row++) {
+            mSectionLabels[row] = ContactsSectionIndex.getSectionLabel(sortKeys[row]);
+        }
+    }
+
+    /**
+     * Works out the collation keys for all rows, unless that has been done already. Meant to be
+     * called on a background thread, once the store's contacts have been delivered.
+     */
+    void prepareCollationKeys() {
+        getCollationKeys();
+    }
+
+    /**
+     * @return The collation keys for all rows, worked out the first time they are needed (see
+     *         {@link #prepareCollationKeys}).
+     */
+    private byte[] getCollationKeys() {
+        byte[] collationKeys = mCollationKeys;
+        if (collationKeys != null) return collationKeys;
+        synchronized (this) {
+            if (mCollationKeys != null) return mCollationKeys;
+
+            // Collator.getInstance() hands out a new instance each time, so this is thread-safe.
+            // The provider's localized collation compares sort keys at primary strength (ignoring
+            // case and accents), so the collation keys do too.
+            Collator collator = Collator.getInstance();
+            collator.setStrength(Collator.PRIMARY);
+            byte[][] keys = new byte[mSortKeys.length][];
+            int[] offsets = new int[mSortKeys.length + 1];
+            for (int row = 0; row < mSortKeys.length; row++) {
+                keys[row] = collator.getCollationKey(mSortKeys[row] == null ? "" : mSortKeys[row])
+                                    .toByteArray();
+                offsets[row + 1] = offsets[row] + keys[row].length;
+            }
+            collationKeys = new byte[offsets[mSortKeys.length]];
+            for (int row = 0; row < mSortKeys.length; row++) {
+                System.arraycopy(keys[row], 0, collationKeys, offsets[row], keys[row].length);
+            }
+            mCollationKeyOffsets = offsets;
+            mCollationKeys = collationKeys;
+            return collationKeys;
+        }
+    }
+
+    /**
+     * Compares the sort keys of two contacts, by their collation keys.
+     * @return A negative number, zero or a positive number if the contact in |firstRow| of
+     *         |first| sorts before, the same as, or after the contact in |secondRow| of |second|.
+     */
+    static int compareSortKeys(
+            ContactsStore first, int firstRow, ContactsStore second, int secondRow) {
+        byte[] firstKeys = first.getCollationKeys();
+        byte[] secondKeys = second.getCollationKeys();
+        int firstIndex = first.mCollationKeyOffsets[firstRow];
+        int firstEnd = first.mCollationKeyOffsets[firstRow + 1];
+        int secondIndex = second.mCollationKeyOffsets[secondRow];
+        int secondEnd = second.mCollationKeyOffsets[secondRow + 1];
+        while (firstIndex < firstEnd && secondIndex < secondEnd) {
+            // The key bytes are compared as unsigned values.
+            int result =
+                    (firstKeys[firstIndex++] & 0xff) - (secondKeys[secondIndex++] & 0xff);
+            if (result != 0) return result;
+        }
+        return (firstEnd - firstIndex) - (secondEnd - secondIndex);
+    }
+
+    /**
+     * Creates a store from columns that have already been laid out (for example, read back from
+     * disk). The arrays are used as is, not copied.
+     * @return The store, with the rows in the order given.
+     */
+    static ContactsStore create(long[] ids, String[] names, String[] sortKeys, int[] emailOffsets,
+            String[] emails, int[] phoneOffsets, String[] phoneNumbers) {
+        return new ContactsStore(
+                ids, names, sortKeys, emailOffsets, emails, phoneOffsets, phoneNumbers);
+    }
+
+    /**
+     * Creates a store holding a single contact (sorted by its display name).
+     * @param id The unique identifier of the contact.
+     * @param displayName The display name of the contact.
+     * @param emails The emails registered for the contact (can be null).
+     * @param phoneNumbers The telephone numbers registered for the contact (can be null).
+     * @return The store.
+     */
+    static ContactsStore forContact(
+            long id, String displayName, List<String> emails, List<String> phoneNumbers) {
+        Builder builder = new Builder();
+        builder.beginContact(id, displayName);
+        if (emails != null) {
+            for (String email : emails) builder.addEmail(email);
+        }
+        if (phoneNumbers != null) {
+            for (String phoneNumber : phoneNumbers) builder.addPhoneNumber(phoneNumber);
+        }
+        builder.endContact(/*keepWithoutDetails=*/true);
+        return builder.build();
+    }
+
+    /** @return The number of contacts in the store. */
+    int getCount() {
+        return mIds.length;
+    }
+
+    /**
+     * Creates the {@link ContactDetails} views for all contacts in the store.
+     * @return The contacts, in the order they were added.
+     */
+    ArrayList<ContactDetails> createContacts() {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>(mIds.length);
+        for (int row = 0; row < mIds.length; row++) contacts.add(new ContactDetails(this, row));
+        return contacts;
+    }
+
+    long getId(int row) {
+        return mIds[row];
+    }
+
+    String getDisplayName(int row) {
+        return mNames[row];
+    }
+
+    String getSortKey(int row) {
+        return mSortKeys[row];
+    }
+
+    char getSectionLabel(int row) {
+        return mSectionLabels[row];
+    }
+
+    int getEmailCount(int row) {
+        return mEmailOffsets[row + 1] - mEmailOffsets[row];
+    }
+
+    String getEmail(int row, int index) {
+        return mEmails[mEmailOffsets[row] + index];
+    }
+
+    /** @return A read-only view of the emails for the contact in |row|. */
+    List<String> getEmails(int row) {
+        return createView(mEmails, mEmailOffsets[row], mEmailOffsets[row + 1]);
+    }
+
+    int getPhoneNumberCount(int row) {
+        return mPhoneOffsets[row + 1] - mPhoneOffsets[row];
+    }
+
+    String getPhoneNumber(int row, int index) {
+        return mPhoneNumbers[mPhoneOffsets[row] + index];
+    }
+
+    /** @return A read-only view of the telephone numbers for the contact in |row|. */
+    List<String> getPhoneNumbers(int row) {
+        return createView(mPhoneNumbers, mPhoneOffsets[row], mPhoneOffsets[row + 1]);
+    }
+
+    /**
+     * @return A read-only view of |values[start]| up to (but not including) |values[end]|. A
+     *         single object, for callers that want a list (those that don't should read the
+     *         values by index instead).
+     */
+    private static List<String> createView(String[] values, int start, int end) {
+        if (start == end) return Collections.emptyList();
+        return new ColumnView(values, start, end - start);
+    }
+
+    /**
+     * A read-only list of a range of values in a column.
+     */
+    private static final class ColumnView extends AbstractList<String> implements RandomAccess {
+        private final String[] mValues;
+        private final int mStart;
+        private final int mSize;
+
+        ColumnView(String[] values, int start, int size) {
+            mValues = values;
+            mStart = start;
+            mSize = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException();
+            return mValues[mStart + index];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+}
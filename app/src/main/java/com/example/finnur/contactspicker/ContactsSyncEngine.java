@@ -0,0 +1,235 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+
+import androidx.annotation.Nullable;
+
+import org.chromium.base.metrics.RecordHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Brings a list of contacts up to date by fetching only what has changed since it was fetched
+ * (as recorded by a {@link ContactsSnapshot.Stamp}): the contacts updated since, and the contacts
+ * deleted since. The changes are then patched into a copy of the list, noting the positions that
+ * were removed and inserted, so that the list on screen can be updated row by row.
+ *
+ * Only for use on a background thread.
+ */
+class ContactsSyncEngine {
+    // The projection for the deleted contacts query.
+    private static final ContactsCursor.Projection DELETED_PROJECTION =
+            new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn DELETED_CONTACT_ID =
+            DELETED_PROJECTION.addLong(ContactsContract.DeletedContacts.CONTACT_ID);
+
+    // The projection for the updated contacts query.
+    private static final ContactsCursor.Projection UPDATED_PROJECTION =
+            new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn UPDATED_CONTACT_ID =
+            UPDATED_PROJECTION.addLong(ContactsContract.Contacts._ID);
+
+    /**
+     * The result of bringing a list of contacts up to date.
+     */
+    static final class Delta {
+        // The contacts, up to date.
+        private final ArrayList<ContactDetails> mContacts;
+
+        // The positions (in the old list) of the contacts removed, in ascending order.
+        private final int[] mRemovedPositions;
+
+        // The positions (in the new list) of the contacts inserted, in ascending order.
+        private final int[] mInsertedPositions;
+
+        Delta(ArrayList<ContactDetails> contacts, int[] removedPositions,
+                int[] insertedPositions) {
+            mContacts = contacts;
+            mRemovedPositions = removedPositions;
+            mInsertedPositions = insertedPositions;
+        }
+
+        /** @return The contacts, up to date. */
+        ArrayList<ContactDetails> getContacts() {
+            return mContacts;
+        }
+
+        /**
+         * @return The positions (in the old list) of the contacts removed, in ascending order.
+         *         Contacts that were updated are removed and then inserted again.
+         */
+        int[] getRemovedPositions() {
+            return mRemovedPositions;
+        }
+
+        /** @return The positions (in the new list) of the contacts inserted, in ascending order. */
+        int[] getInsertedPositions() {
+            return mInsertedPositions;
+        }
+
+        /** @return Whether nothing changed. */
+        boolean isEmpty() {
+            return mRemovedPositions.length == 0 && mInsertedPositions.length == 0;
+        }
+    }
+
+    // The content resolver to query.
+    private final ContentResolver mContentResolver;
+
+    // The fetcher to fetch the details of updated contacts with (so that they include the same
+    // details as the rest of the list).
+    private final ContactsFetcherWorkerTask mFetcher;
+
+    /**
+     * @param contentResolver The content resolver to query.
+     * @param fetcher The fetcher to fetch the details of updated contacts with. Only used for
+     *                {@link ContactsFetcherWorkerTask#fetchContactsUpdatedSince}.
+     */
+    ContactsSyncEngine(ContentResolver contentResolver, ContactsFetcherWorkerTask fetcher) {
+        mContentResolver = contentResolver;
+        mFetcher = fetcher;
+    }
+
+    /**
+     * Brings a list of contacts up to date.
+     * @param contacts The contacts, in display order.
+     * @param since The state of the provider when the contacts were fetched.
+     * @param now The current state of the provider (taken before calling this).
+     * @return The changes, or null if they can't be worked out (and the contacts need fetching
+     *         again in full).
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    Delta sync(List<ContactDetails> contacts, ContactsSnapshot.Stamp since,
+            ContactsSnapshot.Stamp now) {
+        // The provider forgets about deleted contacts after a while.
+        if (now.mTakenAtMs - since.mTakenAtMs
+                >= ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS) {
+            return null;
+        }
+
+        long startTimeMs = SystemClock.elapsedRealtime();
+        LongIntMap changedIds = new LongIntMap(16);
+        if (!queryIds(ContactsContract.DeletedContacts.CONTENT_URI, DELETED_PROJECTION,
+                    DELETED_CONTACT_ID,
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+                    since.mLastDeletedTimestamp, "Deleted", changedIds)) {
+            return null;
+        }
+        if (!queryIds(ContactsContract.Contacts.CONTENT_URI, UPDATED_PROJECTION,
+                    UPDATED_CONTACT_ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+                    since.mLastUpdatedTimestamp, "Updated", changedIds)) {
+            return null;
+        }
+
+        // Updated contacts that no longer have anything to share are only removed.
+        ArrayList<ContactDetails> updated = changedIds.size() == 0
+                ? new ArrayList<ContactDetails>()
+                : mFetcher.fetchContactsUpdatedSince(since.mLastUpdatedTimestamp);
+        if (updated == null) return null;
+
+        Delta delta = applyChanges(contacts, changedIds, updated, createComparator());
+        RecordHistogram.recordCount1000Histogram(
+                "Android.ContactsPicker.Sync.ChangedContacts", changedIds.size());
+        RecordHistogram.recordTimesHistogram(
+                "Android.ContactsPicker.Sync.Time", SystemClock.elapsedRealtime() - startTimeMs);
+        return delta;
+    }
+
+    /**
+     * Queries the ids of the contacts changed after a given time.
+     * @param uri The table to query.
+     * @param projection The projection for the query.
+     * @param idColumn The contact id column.
+     * @param timestampColumn The name of the column holding the time of the change.
+     * @param since The time (in milliseconds since the epoch) to look for changes after.
+     * @param queryName The name to report cursor metrics under.
+     * @param ids The set to add the ids to.
+     * @return Whether the query succeeded.
+     */
+    private boolean queryIds(Uri uri, ContactsCursor.Projection projection,
+            ContactsCursor.LongColumn idColumn, String timestampColumn, long since,
+            String queryName, LongIntMap ids) {
+        ContactsCursor cursor = ContactsCursor.query(mContentResolver, uri, projection,
+                timestampColumn + " > ?", new String[] {Long.toString(since)}, null, queryName);
+        if (cursor == null) return false;
+        try {
+            while (cursor.moveToNext()) ids.put(cursor.getLong(idColumn), 0);
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return The order the contacts are listed in: by the contacts provider's sort key, and by
+     *         id for contacts with the same sort key, which is how the provider sorts them. This
+     *         is the natural order of {@link ContactDetails}, which compares precomputed collation
+     *         keys of the sort keys.
+     */
+    static Comparator<ContactDetails> createComparator() {
+        return (first, second) -> first.compareTo(second);
+    }
+
+    /**
+     * Patches changes into a copy of a list of contacts.
+     * @param contacts The contacts, in display order.
+     * @param changedIds The ids of the contacts that were updated or deleted.
+     * @param updated The up to date details for the updated contacts, in display order (without
+     *                the ones that no longer have anything to share).
+     * @param order The order the contacts are listed in.
+     * @return The changes, or null if the lists turn out not to be in |order| (and the contacts
+     *         need fetching again in full).
+     */
+    @Nullable
+    static Delta applyChanges(List<ContactDetails> contacts, LongIntMap changedIds,
+            List<ContactDetails> updated, Comparator<ContactDetails> order) {
+        ArrayList<ContactDetails> kept = new ArrayList<ContactDetails>(contacts.size());
+        int[] removed = new int[changedIds.size() == 0 ? 0 : contacts.size()];
+        int removedCount = 0;
+        for (int i = 0; i < contacts.size(); i++) {
+            ContactDetails contact = contacts.get(i);
+            if (changedIds.size() != 0 && changedIds.containsKey(contact.getId())) {
+                removed[removedCount++] = i;
+            } else {
+                kept.add(contact);
+            }
+        }
+
+        ArrayList<ContactDetails> result =
+                new ArrayList<ContactDetails>(kept.size() + updated.size());
+        int[] inserted = new int[updated.size()];
+        int keptIndex = 0;
+        for (int i = 0; i < updated.size(); i++) {
+            ContactDetails contact = updated.get(i);
+            int position = Collections.binarySearch(kept, contact, order);
+            if (position < 0) position = -position - 1;
+            // Both lists should be in the same order, so contacts are never inserted before the
+            // previous one. But the provider sorts with its own collation, which can disagree with
+            // the Collator on some names, in which case there is no telling where they belong.
+            assert position >= keptIndex : "Contacts out of order";
+            if (position < keptIndex) return null;
+            result.addAll(kept.subList(keptIndex, position));
+            keptIndex = position;
+            inserted[i] = result.size();
+            result.add(contact);
+        }
+        result.addAll(kept.subList(keptIndex, kept.size()));
+
+        int[] removedPositions = new int[removedCount];
+        System.arraycopy(removed, 0, removedPositions, 0, removedCount);
+        return new Delta(result, removedPositions, inserted);
+    }
+}
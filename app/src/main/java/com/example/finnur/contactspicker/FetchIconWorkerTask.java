@@ -5,22 +5,37 @@
 package com.example.finnur.contactspicker;
 
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.provider.ContactsContract;
 
 import org.chromium.base.ThreadUtils;
+import org.chromium.base.TraceEvent;
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.base.task.AsyncTask;
 
-import java.io.ByteArrayInputStream;
-
 /**
- * A worker task to retrieve images for contacts.
+ * A worker task to retrieve images for a batch of contacts, using a single query. The images are
+ * decoded at (roughly) the size they are shown at, rather than at the size they were stored.
  */
-class FetchIconWorkerTask extends AsyncTask<Bitmap> {
+class FetchIconWorkerTask extends AsyncTask<Bitmap[]> {
+    // The projection for the photo query.
+    private static final ContactsCursor.Projection PROJECTION = new ContactsCursor.Projection();
+    private static final ContactsCursor.LongColumn CONTACT_ID =
+            PROJECTION.addLong(ContactsContract.Data.CONTACT_ID);
+    private static final ContactsCursor.LongColumn DATA_ID =
+            PROJECTION.addLong(ContactsContract.Data._ID);
+    private static final ContactsCursor.LongColumn PHOTO_ID =
+            PROJECTION.addLong(ContactsContract.Data.PHOTO_ID);
+    private static final ContactsCursor.BlobColumn PHOTO =
+            PROJECTION.addBlob(ContactsContract.CommonDataKinds.Photo.PHOTO);
+
+    // How long decoding each icon takes, in microseconds (most decodes take well under a
+    // millisecond). Not split by the number of contacts, which is still growing while the first
+    // icons are decoded, and has no bearing on the decode anyway.
+    private static final String DECODE_TIME_HISTOGRAM =
+            "Android.ContactsPicker.Icons.DecodeTimeMicroseconds";
+
     /**
      * An interface to use to communicate back the results to the client.
      */
@@ -30,11 +45,17 @@ class FetchIconWorkerTask extends AsyncTask<Bitmap> {
          * @param icon The icon retrieved.
          * @param contactId The id of the contact the icon refers to.
          */
-        void iconRetrieved(Bitmap icon, String contactId);
+        void iconRetrieved(Bitmap icon, long contactId);
     }
 
-    // The ID of the contact to look up.
-    private String mContactId;
+    // The IDs of the contacts to look up.
+    private final long[] mContactIds;
+
+    // The size (width and height, in pixels) the icons will be shown at.
+    private final int mIconSizePx;
+
+    // The pool of bitmaps to decode into.
+    private final IconBitmapPool mBitmapPool;
 
     // The content resolver to use for looking up
     private ContentResolver mContentResolver;
@@ -44,58 +65,152 @@ class FetchIconWorkerTask extends AsyncTask<Bitmap> {
 
     /**
      * A FetchIconWorkerTask constructor.
-     * @param id The id of the contact to look up.
+     * @param ids The ids of the contacts to look up.
+     * @param iconSizePx The size (width and height, in pixels) the icons will be shown at.
+     * @param bitmapPool The pool of bitmaps to decode into.
      * @param contentResolver The ContentResolver to use for the lookup.
-     * @param callback The callback to use to communicate back the results.
+     * @param callback The callback to use to communicate back the results (once per contact).
      */
-    public FetchIconWorkerTask(
-            String id, ContentResolver contentResolver, IconRetrievedCallback callback) {
-        mContactId = id;
+    public FetchIconWorkerTask(long[] ids, int iconSizePx, IconBitmapPool bitmapPool,
+            ContentResolver contentResolver, IconRetrievedCallback callback) {
+        mContactIds = ids;
+        mIconSizePx = iconSizePx;
+        mBitmapPool = bitmapPool;
         mContentResolver = contentResolver;
         mCallback = callback;
     }
 
     /**
-     * Fetches the icon of a particular contact (in a background thread).
-     * @return The icon representing a contact (returned as Bitmap).
+     * Fetches the icons of the contacts (in a background thread).
+     * @return The icons, in the same order as the contact ids (null for contacts without one).
      */
     @Override
-    protected Bitmap doInBackground() {
+    protected Bitmap[] doInBackground() {
         assert !ThreadUtils.runningOnUiThread();
 
         if (isCancelled()) return null;
 
-        Uri contactUri = ContentUris.withAppendedId(
-                ContactsContract.Contacts.CONTENT_URI, Long.parseLong(mContactId));
-        Uri photoUri =
-                Uri.withAppendedPath(contactUri, ContactsContract.Contacts.Photo.CONTENT_DIRECTORY);
-        Cursor cursor = mContentResolver.query(
-                photoUri, new String[] {ContactsContract.Contacts.Photo.PHOTO}, null, null, null);
+        try (TraceEvent e = TraceEvent.scoped("FetchIconWorkerTask.doInBackground",
+                     TraceEvent.enabled() ? "contacts=" + mContactIds.length : null)) {
+            return fetchIcons();
+        }
+    }
+
+    /**
+     * Fetches and decodes the icons of the contacts.
+     * @return The icons, in the same order as the contact ids (null for contacts without one).
+     */
+    private Bitmap[] fetchIcons() {
+        LongIntMap positions = new LongIntMap(mContactIds.length);
+        String[] selectionArgs = new String[mContactIds.length + 1];
+        selectionArgs[0] = ContactsContract.CommonDataKinds.Photo.CONTENT_ITEM_TYPE;
+        StringBuilder selection = new StringBuilder(ContactsContract.Data.MIMETYPE)
+                                          .append(" = ? AND ")
+                                          .append(ContactsContract.Data.CONTACT_ID)
+                                          .append(" IN (");
+        for (int i = 0; i < mContactIds.length; i++) {
+            positions.put(mContactIds[i], i);
+            selectionArgs[i + 1] = Long.toString(mContactIds[i]);
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        ContactsCursor cursor = ContactsCursor.query(mContentResolver,
+                ContactsContract.Data.CONTENT_URI, PROJECTION, selection.toString(),
+                selectionArgs, null, "Photos");
         if (cursor == null) return null;
+
+        // A contact can have a photo for each of its raw contacts. Use the one the contact has
+        // picked as its own (the one the photo directory of the contact would return), if any.
+        byte[][] photos = new byte[mContactIds.length][];
+        boolean[] primary = new boolean[mContactIds.length];
         try {
-            if (cursor.moveToFirst()) {
-                byte[] data = cursor.getBlob(0);
-                if (data != null) {
-                    // TODO(finnur): Before launching, verify images have already been re-encoded.
-                    return BitmapFactory.decodeStream(new ByteArrayInputStream(data));
-                }
+            while (cursor.moveToNext()) {
+                int position = positions.get(cursor.getLong(CONTACT_ID), -1);
+                if (position == -1 || primary[position]) continue;
+                byte[] data = cursor.getBlob(PHOTO);
+                if (data == null) continue;
+                primary[position] = cursor.getLong(DATA_ID) == cursor.getLong(PHOTO_ID);
+                if (primary[position] || photos[position] == null) photos[position] = data;
             }
         } finally {
             cursor.close();
         }
-        return null;
+
+        Bitmap[] icons = new Bitmap[mContactIds.length];
+        for (int i = 0; i < photos.length; i++) {
+            if (isCancelled()) return null;
+            if (photos[i] == null) continue;
+            // TODO(finnur): Before launching, verify images have already been re-encoded.
+            TraceEvent.begin("FetchIconWorkerTask.decodeIcon");
+            long decodeStartNs = System.nanoTime();
+            icons[i] = decodeIcon(photos[i]);
+            RecordHistogram.recordCustomCountHistogram(DECODE_TIME_HISTOGRAM,
+                    (int) Math.min((System.nanoTime() - decodeStartNs) / 1000, Integer.MAX_VALUE),
+                    1, 1000000, 50);
+            TraceEvent.end("FetchIconWorkerTask.decodeIcon",
+                    TraceEvent.enabled() ? "bytes=" + photos[i].length + " decodedBytes="
+                                    + (icons[i] != null ? icons[i].getByteCount() : 0)
+                                         : null);
+        }
+        return icons;
+    }
+
+    /**
+     * Decodes a contact photo, down-sampled to (no less than) the size of the icon. Opaque
+     * images are decoded with two bytes per pixel instead of four, and into a bitmap from the
+     * pool when one is available.
+     * @param data The encoded photo.
+     * @return The decoded icon, or null if the photo could not be decoded.
+     */
+    private Bitmap decodeIcon(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        // Halve the size for as long as it stays at least as big as the icon.
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mIconSizePx
+                && options.outHeight / (sampleSize * 2) >= mIconSizePx) {
+            sampleSize *= 2;
+        }
+
+        // JPEG (the format the provider stores thumbnails in) has no alpha channel.
+        Bitmap.Config config = "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565
+                                                                         : Bitmap.Config.ARGB_8888;
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.get(width * height * bytesPerPixel, config);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            // The decoder can't use the bitmap after all, so try again without it.
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
     }
 
     /**
      * Communicates the results back to the client. Called on the UI thread.
-     * @param icon The icon retrieved.
+     * @param icons The icons retrieved.
      */
     @Override
-    protected void onPostExecute(Bitmap icon) {
+    protected void onPostExecute(Bitmap[] icons) {
         assert ThreadUtils.runningOnUiThread();
 
         if (isCancelled()) return;
 
-        mCallback.iconRetrieved(icon, mContactId);
+        for (int i = 0; i < mContactIds.length; i++) {
+            mCallback.iconRetrieved(icons != null ? icons[i] : null, mContactIds[i]);
+        }
     }
 }
@@ -0,0 +1,88 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of bitmaps no longer in use, for the icon decoder to decode into (through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}) instead of allocating new ones.
+ *
+ * Bitmaps are handed out if they are big enough (and of the same config) as the bitmap needed,
+ * which the decoder only supports as of KitKat. On older versions the pool is always empty.
+ *
+ * Thread-safe, as icons are decoded on background threads.
+ */
+class IconBitmapPool {
+    // The maximum total size of the bitmaps in the pool (in bytes).
+    private final int mMaxSizeBytes;
+
+    // The current total size of the bitmaps in the pool (in bytes).
+    private int mSizeBytes;
+
+    // The bitmaps in the pool, most recently added last.
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+
+    /**
+     * @param maxSizeBytes The maximum total size of the bitmaps to keep (in bytes).
+     */
+    IconBitmapPool(int maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /** @return Whether the decoder can decode into bitmaps from the pool on this device. */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Takes a bitmap out of the pool, suitable for decoding an image into.
+     * @param byteCount The number of bytes the decoded image needs.
+     * @param config The config the image will be decoded with.
+     * @return A bitmap with room for at least |byteCount| bytes, or null if there is none.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized Bitmap get(int byteCount, Bitmap.Config config) {
+        if (!isSupported()) return null;
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getConfig() != config || bitmap.getAllocationByteCount() < byteCount) {
+                continue;
+            }
+            mBitmaps.remove(i);
+            mSizeBytes -= bitmap.getAllocationByteCount();
+            return bitmap;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a bitmap to the pool. The bitmap must not be in use (or be used) anywhere else.
+     * @param bitmap The bitmap. Bitmaps the decoder can't reuse are ignored.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized void put(Bitmap bitmap) {
+        if (!isSupported() || !bitmap.isMutable() || bitmap.isRecycled()) return;
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSizeBytes) return;
+        mBitmaps.add(bitmap);
+        mSizeBytes += size;
+        trimToSize(mMaxSizeBytes);
+    }
+
+    /**
+     * Drops bitmaps from the pool (oldest first) until the total size is at most |maxSizeBytes|.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized void trimToSize(int maxSizeBytes) {
+        while (mSizeBytes > maxSizeBytes && !mBitmaps.isEmpty()) {
+            mSizeBytes -= mBitmaps.remove(0).getAllocationByteCount();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import android.content.res.Resources;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import org.chromium.chrome.browser.ui.widget.RoundedIconGenerator;
+
+/**
+ * A cache of the icons shown for contacts without a photo: a colored circle with the first letter
+ * of the contact's name. The icon depends only on that letter (and on the color and size of the
+ * circle), so the few dozen distinct icons are drawn once each and shared between all the rows
+ * showing them, instead of drawing a new bitmap every time a row is bound.
+ *
+ * The icons are keyed by (letter, color, size) and the cache holds at most a fixed number of
+ * them, dropping the oldest first. Looking up an icon that is in the cache does not allocate.
+ * Sharing a drawable between rows is fine here, as nothing about a BitmapDrawable changes once it
+ * is drawn (it has no state and no animation).
+ *
+ * Must only be used on the UI thread.
+ */
+class InitialsIconCache {
+    // The resources to create the drawables with.
+    private final Resources mResources;
+
+    // The generator to draw the icons with.
+    private final RoundedIconGenerator mGenerator;
+
+    // The color of the circle and the size of the icons (in pixels), as drawn by the generator.
+    private int mBackgroundColor;
+    private final int mIconSizePx;
+
+    // Maps the key of an icon to the slot holding it.
+    private final LongIntMap mSlots;
+
+    // The per-slot data: the key and the icon.
+    private final long[] mKeys;
+    private final Drawable[] mIcons;
+
+    // The slot to fill next (the oldest, once all slots are in use).
+    private int mNextSlot;
+
+    // The number of lookups that found an icon, and the number of icons drawn.
+    private int mHitCount;
+    private int mGeneratedCount;
+
+    /**
+     * @param resources The resources to create the drawables with.
+     * @param generator The generator to draw the icons with.
+     * @param backgroundColor The color of the circle, as set on the generator.
+     * @param iconSizePx The size of the icons the generator draws (in pixels).
+     * @param maxIcons The maximum number of icons to keep.
+     */
+    InitialsIconCache(Resources resources, RoundedIconGenerator generator, int backgroundColor,
+            int iconSizePx, int maxIcons) {
+        mResources = resources;
+        mGenerator = generator;
+        mBackgroundColor = backgroundColor;
+        mIconSizePx = iconSizePx;
+        mSlots = new LongIntMap(maxIcons);
+        mKeys = new long[maxIcons];
+        mIcons = new Drawable[maxIcons];
+    }
+
+    /**
+     * Changes the color of the circle for the icons handed out from now on.
+     * @param color The color to use.
+     */
+    void setBackgroundColor(int color) {
+        mBackgroundColor = color;
+        mGenerator.setBackgroundColor(color);
+    }
+
+    /**
+     * @param displayName The name of the contact.
+     * @return The icon to show for the contact.
+     */
+    Drawable getIcon(String displayName) {
+        // The generator only draws the first character.
+        char glyph = displayName.isEmpty() ? 0 : displayName.charAt(0);
+        long key = ((long) mBackgroundColor << 32) | ((long) (mIconSizePx & 0xffff) << 16) | glyph;
+        int slot = mSlots.get(key, -1);
+        if (slot != -1) {
+            mHitCount++;
+            return mIcons[slot];
+        }
+
+        slot = mNextSlot;
+        mNextSlot = (mNextSlot + 1) % mIcons.length;
+        if (mIcons[slot] != null) mSlots.remove(mKeys[slot]);
+        mKeys[slot] = key;
+        mIcons[slot] = new BitmapDrawable(mResources,
+                mGenerator.generateIconForText(glyph == 0 ? "" : String.valueOf(glyph)));
+        mSlots.put(key, slot);
+        mGeneratedCount++;
+        return mIcons[slot];
+    }
+
+    /** @return The number of lookups that found an icon. */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /** @return The number of icons drawn. */
+    int getGeneratedCount() {
+        return mGeneratedCount;
+    }
+}
@@ -0,0 +1,162 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, using open addressing (linear probing) over primitive
+ * arrays. Unlike a HashMap<Long, Integer>, it does not allocate per entry or box its keys and
+ * values, which matters when indexing tens of thousands of contacts by id.
+ *
+ * Not thread-safe. Long.MIN_VALUE is reserved (to mark free slots) and can not be used as a key.
+ */
+class LongIntMap {
+    // Marks a slot that holds no key.
+    private static final long FREE_KEY = Long.MIN_VALUE;
+
+    // The smallest table size to allocate.
+    private static final int MIN_CAPACITY = 16;
+
+    // The keys, with FREE_KEY marking the slots not in use. The size is always a power of two.
+    private long[] mKeys;
+
+    // The values, at the same index as their keys.
+    private int[] mValues;
+
+    // The number of keys in the map.
+    private int mSize;
+
+    /**
+     * Creates a map with room for a given number of keys before it needs to grow.
+     * @param expectedSize The number of keys expected.
+     */
+    LongIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    LongIntMap() {
+        this(0);
+    }
+
+    /** @return The number of keys in the map. */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @param key The key to look up.
+     * @param defaultValue The value to return if the key is not in the map.
+     * @return The value associated with |key|, or |defaultValue| if there is none.
+     */
+    int get(long key, int defaultValue) {
+        int slot = findSlot(key);
+        return mKeys[slot] == FREE_KEY ? defaultValue : mValues[slot];
+    }
+
+    /** @return Whether the key is in the map. */
+    boolean containsKey(long key) {
+        return mKeys[findSlot(key)] != FREE_KEY;
+    }
+
+    /**
+     * Associates a value with a key, replacing the previous value (if any).
+     * @param key The key.
+     * @param value The value.
+     */
+    void put(long key, int value) {
+        assert key != FREE_KEY;
+        int slot = findSlot(key);
+        if (mKeys[slot] == FREE_KEY) {
+            // Keep the load factor at or below one half, so probe sequences stay short.
+            if (2 * (mSize + 1) > mKeys.length) {
+                resize(mKeys.length * 2);
+                slot = findSlot(key);
+            }
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mValues[slot] = value;
+    }
+
+    /**
+     * Removes a key (and its value) from the map.
+     * @param key The key to remove.
+     * @return Whether the key was in the map.
+     */
+    boolean remove(long key) {
+        int slot = findSlot(key);
+        if (mKeys[slot] == FREE_KEY) return false;
+
+        // Shift back the entries that follow in the same probe sequence, so that lookups never
+        // stop short at the slot being freed.
+        int mask = mKeys.length - 1;
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (mKeys[next] != FREE_KEY) {
+            int home = hash(mKeys[next]) & mask;
+            // Move the entry if its home slot is not in the (cyclic) range (free, next].
+            boolean inRange = free <= next ? (free < home && home <= next)
+                                           : (free < home || home <= next);
+            if (!inRange) {
+                mKeys[free] = mKeys[next];
+                mValues[free] = mValues[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[free] = FREE_KEY;
+        mSize--;
+        return true;
+    }
+
+    /** Removes all keys from the map. */
+    void clear() {
+        Arrays.fill(mKeys, FREE_KEY);
+        mSize = 0;
+    }
+
+    /**
+     * @return The slot holding |key|, or the free slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != FREE_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        // Contact ids are mostly sequential, so spread them out (Fibonacci hashing).
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedSize) capacity *= 2;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        Arrays.fill(mKeys, FREE_KEY);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == FREE_KEY) continue;
+            int slot = findSlot(oldKeys[i]);
+            mKeys[slot] = oldKeys[i];
+            mValues[slot] = oldValues[i];
+        }
+    }
+}
@@ -14,9 +14,15 @@ import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.util.Log;
+import android.widget.Toast;
 
+import org.chromium.base.ContextUtils;
+import org.chromium.base.StrictModeContext;
+import org.chromium.base.metrics.LocalHistogramRecorder;
 import org.chromium.ui.ContactsPickerListener;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -27,6 +33,8 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Chrome does this at startup. The picker needs it to check for low memory.
+        ContextUtils.initApplicationContext(getApplicationContext());
         setContentView(R.layout.activity_main);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -86,7 +94,28 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_dump_histograms) {
+            dumpHistograms();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Writes the histograms recorded so far to a file in the app's external files directory
+     * (where adb can pull it from).
+     */
+    private void dumpHistograms() {
+        File directory = getExternalFilesDir(null);
+        File file = new File(directory != null ? directory : getFilesDir(), "histograms.txt");
+        try (StrictModeContext ignored = StrictModeContext.allowDiskWrites()) {
+            LocalHistogramRecorder.get().exportTo(file);
+        } catch (IOException e) {
+            Log.e("***** ", "**** Unable to write histograms", e);
+            return;
+        }
+        Log.i("***** ", "**** Histograms written to " + file.getPath());
+        Toast.makeText(this, file.getPath(), Toast.LENGTH_LONG).show();
+    }
 }
@@ -4,30 +4,48 @@
 
 package com.example.finnur.contactspicker;
 
+import android.Manifest;
 import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.RecyclerView.Adapter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import androidx.annotation.IntDef;
 
+import org.chromium.base.ApiCompatibilityUtils;
+import org.chromium.base.ThreadUtils;
+import org.chromium.base.TraceEvent;
 import org.chromium.base.VisibleForTesting;
+import org.chromium.base.metrics.RecordHistogram;
 import org.chromium.base.task.AsyncTask;
+import org.chromium.base.task.PostTask;
+import org.chromium.base.task.SequencedTaskRunner;
+import org.chromium.base.task.TaskTraits;
 //import org.chromium.chrome.R;
+import org.chromium.chrome.browser.widget.selection.SelectionDelegate;
 
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * A data adapter for the Contacts Picker.
  */
 public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
         implements ContactsFetcherWorkerTask.ContactsRetrievedCallback,
-                   TopView.ChipToggledCallback {
+                   ContactsChangeObserver.ContactsChangedCallback, TopView.ChipToggledCallback {
     /**
      * A ViewHolder for the top-most view in the RecyclerView. The view it contains has a
      * checkbox and some multi-line text that goes with it, so clicks on either text line
@@ -49,6 +67,55 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
         }
     }
 
+    /**
+     * Indexes the contacts by their position in the full list, so that the selection can be kept
+     * as a bit set (see {@link SelectionDelegate#setItemIndexer}). Contacts are looked up by id,
+     * through a map that is brought up to date lazily whenever the list changes (and only added
+     * to while the list grows, as it does while contacts are streamed in).
+     */
+    private class ContactsIndexer implements SelectionDelegate.ItemIndexer<ContactDetails> {
+        // Maps the ids of the contacts to their positions in mContactDetails.
+        private final LongIntMap mPositions = new LongIntMap();
+
+        // The list (and its version) the map was last brought up to date with, and the number of
+        // contacts in the map.
+        private ArrayList<ContactDetails> mIndexedContacts;
+        private int mIndexedVersion = -1;
+        private int mIndexedCount;
+
+        private void update() {
+            if (mIndexedVersion == mContactsVersion && mIndexedContacts == mContactDetails) return;
+            if (mIndexedContacts != mContactDetails || mContactDetails == null
+                    || mContactDetails.size() < mIndexedCount) {
+                // A different list: start over.
+                mPositions.clear();
+                mIndexedCount = 0;
+            }
+            mIndexedContacts = mContactDetails;
+            mIndexedVersion = mContactsVersion;
+            if (mContactDetails == null) return;
+            for (; mIndexedCount < mContactDetails.size(); mIndexedCount++) {
+                mPositions.put(mContactDetails.get(mIndexedCount).getId(), mIndexedCount);
+            }
+        }
+
+        @Override
+        public int getIndexCount() {
+            return mContactDetails == null ? 0 : mContactDetails.size();
+        }
+
+        @Override
+        public int getIndexOf(ContactDetails contact) {
+            update();
+            return mPositions.get(contact.getId(), -1);
+        }
+
+        @Override
+        public ContactDetails getItemAt(int index) {
+            return mContactDetails.get(index);
+        }
+    }
+
     /**
      * The types of filters supported.
      */
@@ -70,6 +137,9 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
         int CONTACT_DETAILS = 1;
     }
 
+    // The name of the file (in the cache directory) to keep a snapshot of the contacts in.
+    private static final String SNAPSHOT_FILE_NAME = "contacts_picker_snapshot";
+
     // The category view to use to show the contacts.
     private PickerCategoryView mCategoryView;
 
@@ -85,14 +155,59 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
     // The full list of all registered contacts on the device.
     private ArrayList<ContactDetails> mContactDetails;
 
+    // Bumped whenever mContactDetails changes.
+    private int mContactsVersion;
+
+    // Indexes mContactDetails for the selection.
+    private final ContactsIndexer mContactsIndexer = new ContactsIndexer();
+
+    // The alphabetical index of mContactDetails, kept up to date along with it.
+    private final ContactsSectionIndex mSectionIndex = new ContactsSectionIndex();
+
     // The async worker task to use for fetching the contact details.
     private ContactsFetcherWorkerTask mWorkerTask;
 
+    // The async worker task bringing the contact details up to date after they changed (or null).
+    private ContactsFetcherWorkerTask mRefreshTask;
+
+    // The file to save the contacts to (and deliver them from, when the picker is opened again),
+    // or null if they must not be saved (without the permission to read them).
+    private final File mSnapshotFile;
+
+    // The state of the contacts provider when the contact details were fetched (null if unknown).
+    private ContactsSnapshot.Stamp mStamp;
+
+    // Whether contact details are being fetched (or brought up to date).
+    private boolean mLoading;
+
+    // Whether the contacts changed while being fetched, and need bringing up to date once done.
+    private boolean mRefreshPending;
+
+    // Watches for changes to the contacts while the picker is open (null when not fetching).
+    private ContactsChangeObserver mChangeObserver;
+
     // Whether the user has switched to search mode.
     private boolean mSearchMode;
 
     // A list of search result indices into the larger data set.
-    private ArrayList<Integer> mSearchResults;
+    private int[] mSearchResults;
+
+    // The current search string (empty when not filtering).
+    private String mSearchString = "";
+
+    // The sequence the search index is built and searched on, off the UI thread.
+    private final SequencedTaskRunner mSearchTaskRunner =
+            PostTask.createSequencedTaskRunner(TaskTraits.USER_BLOCKING);
+
+    // The index to search the contacts with (null until built). Only used on mSearchTaskRunner.
+    private ContactsSearchIndex mSearchIndex;
+
+    // The version of mContactDetails the latest search index was (or is being) built over.
+    private int mIndexedContactsVersion = -1;
+
+    // Identifies the latest search. Bumped on the UI thread whenever the search string changes,
+    // and read on mSearchTaskRunner to abandon (or skip) searches that have been superseded.
+    private volatile int mSearchGeneration;
 
     // Whether to include names in the returned results.
     private static boolean sIncludeNames;
@@ -103,6 +218,16 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
     // Whether to include telephone numbers in the returned results.
     private static boolean sIncludeTelephones;
 
+    // When the adapter was created (in milliseconds since boot), and whether a contact has been
+    // shown since (to measure how long it takes for the first one to show).
+    private final long mCreationTimeMs;
+    private boolean mFirstContactBound;
+
+    // How long it took from creating the adapter until the first contact row was drawn (or -1
+    // until then). Recorded once the contacts have loaded, when their number is known.
+    private long mTimeToFirstContactDrawnMs = -1;
+    private boolean mTimeToFirstContactDrawnRecorded;
+
     // A list of contacts to use for testing (instead of querying Android).
     private static ArrayList<ContactDetails> sTestContacts;
 
@@ -117,18 +242,43 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
         mCategoryView = categoryView;
         mContentResolver = contentResolver;
         mFormattedOrigin = formattedOrigin;
+        mCreationTimeMs = SystemClock.elapsedRealtime();
+        // Spans opening the picker until the first contact is shown.
+        TraceEvent.startAsync("ContactsPicker.TimeToFirstContact", hashCode());
         sIncludeNames = true;
         sIncludeEmails = true;
         sIncludeTelephones = true;
 
+        Context context = mCategoryView.getContext();
+        File snapshotFile = new File(context.getCacheDir(), SNAPSHOT_FILE_NAME);
+        if (ApiCompatibilityUtils.checkPermission(context, Manifest.permission.READ_CONTACTS,
+                    Process.myPid(), Process.myUid())
+                == PackageManager.PERMISSION_GRANTED) {
+            mSnapshotFile = snapshotFile;
+        } else {
+            // Without (or after revoking) the permission, the contacts saved earlier must go.
+            mSnapshotFile = null;
+            PostTask.postTask(
+                    TaskTraits.USER_VISIBLE_MAY_BLOCK, () -> ContactsSnapshot.delete(snapshotFile));
+        }
+
         if (getAllContacts() == null && sTestContacts == null) {
             mWorkerTask = new ContactsFetcherWorkerTask(mContentResolver, this,
                     mCategoryView.includeNames, mCategoryView.includeEmails,
-                    mCategoryView.includeTel);
+                    mCategoryView.includeTel, /*streaming=*/true, mSnapshotFile);
             mWorkerTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            mLoading = true;
+
+            mChangeObserver = new ContactsChangeObserver(this);
+            mChangeObserver.register(mContentResolver);
         } else {
             mContactDetails = sTestContacts;
             notifyDataSetChanged();
+            if (mContactDetails != null) {
+                updateContactCount();
+                mSectionIndex.reset(mContactDetails);
+                buildSearchIndex();
+            }
         }
     }
 
@@ -142,29 +292,145 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
     }
 
     /**
-     * Sets the search query (filter) for the contact list. Filtering is by display name.
+     * Sets the search query (filter) for the contact list. Filtering is by display name (and
+     * emails and telephone numbers, if included). The search runs in the background and the
+     * results are applied when ready, unless the query has changed again by then.
      * @param query The search term to use.
      */
     public void setSearchString(String query) {
+        try (TraceEvent e = TraceEvent.scoped("PickerAdapter.setSearchString")) {
+            search(query);
+        }
+    }
+
+    private void search(String query) {
+        mSearchString = query;
+
+        // Supersede any search still pending or running.
+        final int generation = ++mSearchGeneration;
+
         if (query.equals("")) {
             if (mSearchResults == null) return;
-            mSearchResults.clear();
-            mSearchResults = null;
-        } else {
-            mSearchResults = new ArrayList<Integer>();
-            Integer count = 0;
-            String query_lower = query.toLowerCase(Locale.getDefault());
-            for (ContactDetails contact : mContactDetails) {
-                if (contact.getDisplayName().toLowerCase(Locale.getDefault()).contains(query_lower)
-                        || contact.getContactDetailsAsString(includesEmails(), includesTelephones())
-                                   .toLowerCase(Locale.getDefault())
-                                   .contains(query_lower)) {
-                    mSearchResults.add(count);
+            applySearchResults(null);
+            return;
+        }
+        if (mContactDetails == null) return;
+
+        // Searches made while contacts are still loading only cover the contacts loaded so far.
+        if (mIndexedContactsVersion != mContactsVersion) buildSearchIndex();
+
+        final boolean includeEmails = includesEmails();
+        final boolean includeTelephones = includesTelephones();
+        final long startTimeMs = SystemClock.elapsedRealtime();
+        // Spans the search in the background and showing the results on the UI thread.
+        TraceEvent.startAsync("ContactsPicker.Search", generation);
+        mSearchTaskRunner.postTask(() -> {
+            // Skip searches that were superseded while queued.
+            if (generation != mSearchGeneration) {
+                TraceEvent.finishAsync("ContactsPicker.Search", generation);
+                return;
+            }
+            TraceEvent.begin("ContactsSearchIndex.search");
+            final int[] results = mSearchIndex.search(query, includeEmails, includeTelephones,
+                    () -> generation != mSearchGeneration);
+            TraceEvent.end("ContactsSearchIndex.search",
+                    TraceEvent.enabled() && results != null ? "results=" + results.length : null);
+            if (results == null) {
+                TraceEvent.finishAsync("ContactsPicker.Search", generation);
+                return;
+            }
+            ThreadUtils.postOnUiThread(() -> {
+                if (generation == mSearchGeneration) {
+                    applySearchResults(results);
+                    // From the keystroke until its results are shown.
+                    mCategoryView.getMetrics().recordTime("Android.ContactsPicker.SearchLatency",
+                            SystemClock.elapsedRealtime() - startTimeMs);
                 }
-                count++;
+                TraceEvent.finishAsync("ContactsPicker.Search", generation);
+            });
+        });
+    }
+
+    /**
+     * Makes the current search (if any) again, over the latest search index. Searches still
+     * pending were made over an older list of contacts (and their results are positions in that
+     * list), so they are superseded, even if they haven't produced any results yet.
+     */
+    private void searchAgain() {
+        if (!mSearchString.isEmpty()) setSearchString(mSearchString);
+    }
+
+    /**
+     * Builds the search index for the contacts in the background, so that it is ready (or at
+     * least well on its way) by the time the user starts searching.
+     */
+    private void buildSearchIndex() {
+        // The index refers to contacts by position, so it is built over a snapshot of the list.
+        final ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>(mContactDetails);
+        mIndexedContactsVersion = mContactsVersion;
+        mSearchTaskRunner.postTask(() -> {
+            try (TraceEvent e = TraceEvent.scoped("ContactsSearchIndex.build",
+                         TraceEvent.enabled() ? "contacts=" + contacts.size() : null)) {
+                mSearchIndex = ContactsSearchIndex.build(contacts, Locale.getDefault());
             }
+        });
+    }
+
+    /**
+     * Shows a new set of search results, notifying the RecyclerView of only the rows that were
+     * added or removed (instead of rebinding the whole list).
+     * @param results The new results, or null to show all contacts.
+     */
+    private void applySearchResults(int[] results) {
+        int[] oldResults = mSearchResults;
+        mSearchResults = results;
+        if (!mSearchMode) {
+            notifyDataSetChanged();
+            return;
         }
-        notifyDataSetChanged();
+
+        // Both lists are ascending positions into mContactDetails (a null list meaning all of
+        // them), so a single merge finds the minimal set of insertions and removals.
+        int oldCount = oldResults != null ? oldResults.length : mContactDetails.size();
+        int newCount = results != null ? results.length : mContactDetails.size();
+        int oldIndex = 0;
+        int newIndex = 0;
+        int position = 0;
+        while (oldIndex < oldCount || newIndex < newCount) {
+            int removed = 0;
+            while (oldIndex < oldCount
+                    && (newIndex == newCount
+                            || contactAt(oldResults, oldIndex) < contactAt(results, newIndex))) {
+                oldIndex++;
+                removed++;
+            }
+            if (removed > 0) notifyItemRangeRemoved(position, removed);
+
+            int inserted = 0;
+            while (newIndex < newCount
+                    && (oldIndex == oldCount
+                            || contactAt(results, newIndex) < contactAt(oldResults, oldIndex))) {
+                newIndex++;
+                inserted++;
+            }
+            if (inserted > 0) {
+                notifyItemRangeInserted(position, inserted);
+                position += inserted;
+            }
+
+            // Skip over the rows present in both.
+            while (oldIndex < oldCount && newIndex < newCount
+                    && contactAt(oldResults, oldIndex) == contactAt(results, newIndex)) {
+                oldIndex++;
+                newIndex++;
+                position++;
+            }
+        }
+    }
+
+    /** @return The position in mContactDetails of the |index|-th search result. */
+    private static int contactAt(int[] results, int index) {
+        return results != null ? results[index] : index;
     }
 
     /**
@@ -175,13 +441,189 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
         return mContactDetails;
     }
 
+    /**
+     * Stops fetching and watching for changes to the contacts. Called when the picker closes.
+     */
+    public void onDestroy() {
+        if (mChangeObserver != null) mChangeObserver.unregister();
+        if (mWorkerTask != null) mWorkerTask.cancel(true);
+        if (mRefreshTask != null) mRefreshTask.cancel(true);
+        mRefreshTask = null;
+    }
+
+    /**
+     * Called when the contacts have been fully loaded (or brought up to date).
+     */
+    private void onContactsLoaded() {
+        ContactsFetcherWorkerTask task = mRefreshTask != null ? mRefreshTask : mWorkerTask;
+        if (task != null) mStamp = task.getStamp();
+        mRefreshTask = null;
+        mLoading = false;
+        maybeRecordTimeToFirstContactDrawn();
+        if (mRefreshPending) {
+            mRefreshPending = false;
+            mChangeObserver.scheduleRefresh();
+        }
+    }
+
+    // ContactsChangeObserver.ContactsChangedCallback:
+
+    @Override
+    public void contactsChanged() {
+        if (mLoading) {
+            // Refresh once the contacts being fetched have arrived (they may predate the change).
+            mRefreshPending = true;
+            return;
+        }
+
+        mLoading = true;
+        mRefreshTask = new ContactsFetcherWorkerTask(mContentResolver, this,
+                mCategoryView.includeNames, mCategoryView.includeEmails, mCategoryView.includeTel,
+                /*streaming=*/true, mSnapshotFile);
+        mRefreshTask.setContactsToUpdate(new ArrayList<ContactDetails>(mContactDetails), mStamp);
+        mRefreshTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     // ContactsFetcherWorkerTask.ContactsRetrievedCallback:
 
     @Override
     public void contactsRetrieved(ArrayList<ContactDetails> contacts) {
+        setContacts(contacts);
+        onContactsLoaded();
+    }
+
+    @Override
+    public void contactsChunkRetrieved(ArrayList<ContactDetails> contacts, boolean lastChunk) {
+        if (mContactDetails == null) {
+            mContactDetails = new ArrayList<ContactDetails>(contacts);
+        } else {
+            mContactDetails.addAll(contacts);
+        }
+        if (!contacts.isEmpty()) mContactsVersion++;
+        mSectionIndex.append(contacts);
+        updateContactCount();
+        if (lastChunk) {
+            buildSearchIndex();
+            onContactsLoaded();
+        }
+
+        if (mContactDetails.isEmpty()) {
+            // Nothing to insert, but the list still needs to know that loading has finished.
+            if (lastChunk) notifyDataSetChanged();
+            return;
+        }
+
+        // Search results (if any) are only based on the contacts that had been loaded when the
+        // search was made, so only the unfiltered list grows.
+        if (mSearchResults != null || contacts.isEmpty()) return;
+
+        // The first chunk also brings in the Select All checkbox (when not searching).
+        int newItemCount = getItemCount();
+        int insertedCount =
+                mContactDetails.size() == contacts.size() ? newItemCount : contacts.size();
+        notifyItemRangeInserted(newItemCount - insertedCount, insertedCount);
+    }
+
+    @Override
+    public void contactsReplaced(ArrayList<ContactDetails> contacts) {
+        // Search results are positions in the list being replaced, so they are dropped (and the
+        // search made again) along with it.
+        mSearchResults = null;
+        Set<ContactDetails> selection = copySelection();
+        setContacts(contacts);
+        searchAgain();
+        mCategoryView.updateSelection(selection, mContactDetails);
+        onContactsLoaded();
+    }
+
+    @Override
+    public void contactsUpdated(ContactsSyncEngine.Delta delta) {
+        if (delta.isEmpty()) {
+            // Still the same contacts, but the list may have been waiting for them to be final.
+            if (mIndexedContactsVersion != mContactsVersion) {
+                buildSearchIndex();
+                searchAgain();
+            }
+            if (mContactDetails.isEmpty()) notifyDataSetChanged();
+            onContactsLoaded();
+            return;
+        }
+
+        int oldCount = mContactDetails.size();
+        Set<ContactDetails> selection = copySelection();
+        mContactDetails = delta.getContacts();
+        mContactsVersion++;
+        mSectionIndex.update(
+                delta.getRemovedPositions(), delta.getInsertedPositions(), mContactDetails);
+        updateContactCount();
+        buildSearchIndex();
+        mCategoryView.updateSelection(selection, mContactDetails);
+        onContactsLoaded();
+
+        if (mSearchResults != null) {
+            // Search results are positions in the old list, so search again instead.
+            mSearchResults = null;
+            notifyDataSetChanged();
+            searchAgain();
+            return;
+        }
+        searchAgain();
+        if (oldCount == 0 || mContactDetails.isEmpty()) {
+            // The Select All checkbox comes and goes with the contacts.
+            notifyDataSetChanged();
+            return;
+        }
+
+        // Removals go from the bottom up (so that the positions of the ones still to be removed
+        // stay put), after which insertions go top down in the positions of the new list. Rows
+        // outside these ranges stay where they are, and so does the scroll position.
+        int offset = mSearchMode ? 0 : 1;
+        int[] removed = delta.getRemovedPositions();
+        for (int end = removed.length; end > 0;) {
+            int start = end - 1;
+            while (start > 0 && removed[start - 1] == removed[start] - 1) start--;
+            notifyItemRangeRemoved(removed[start] + offset, end - start);
+            end = start;
+        }
+        int[] inserted = delta.getInsertedPositions();
+        for (int start = 0; start < inserted.length;) {
+            int end = start + 1;
+            while (end < inserted.length && inserted[end] == inserted[end - 1] + 1) end++;
+            notifyItemRangeInserted(inserted[start] + offset, end - start);
+            start = end;
+        }
+    }
+
+    /**
+     * The selection is kept by position in the list, so it is copied out before the list
+     * changes.
+     * @return A copy of the selected contacts.
+     */
+    private Set<ContactDetails> copySelection() {
+        Set<ContactDetails> selection = mCategoryView.getSelectionDelegate().getSelectedItems();
+        if (selection.isEmpty()) return Collections.emptySet();
+        return new HashSet<ContactDetails>(selection);
+    }
+
+    /**
+     * Replaces the contacts shown.
+     * @param contacts The new contacts.
+     */
+    private void setContacts(ArrayList<ContactDetails> contacts) {
         mContactDetails = contacts;
-        if (mTopView != null) mTopView.updateContactCount(mContactDetails.size());
+        mContactsVersion++;
+        mSectionIndex.reset(mContactDetails);
+        updateContactCount();
         notifyDataSetChanged();
+        buildSearchIndex();
+    }
+
+    /**
+     * Lets the Select All view and the metrics know how many contacts there are.
+     */
+    private void updateContactCount() {
+        mCategoryView.getMetrics().setContactCount(mContactDetails.size());
+        if (mTopView != null) mTopView.updateContactCount(mContactDetails.size());
     }
 
     // RecyclerView.Adapter:
@@ -212,7 +654,7 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
                 ContactView itemView = (ContactView) LayoutInflater.from(parent.getContext())
                                                .inflate(R.layout.contact_view, parent, false);
                 itemView.setCategoryView(mCategoryView);
-                return new ContactViewHolder(itemView, mCategoryView, mContentResolver);
+                return new ContactViewHolder(itemView, mCategoryView);
             }
         }
         return null;
@@ -226,18 +668,68 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
                 return;
             case ViewType.CONTACT_DETAILS:
                 ContactViewHolder contactHolder = (ContactViewHolder) holder;
-                ContactDetails contact;
-                if (!mSearchMode || mSearchResults == null) {
-                    // Subtract one because the first view is the Select All checkbox when not in
-                    // search mode.
-                    contact = mContactDetails.get(position - (mSearchMode ? 0 : 1));
-                } else {
-                    Integer index = mSearchResults.get(position);
-                    contact = mContactDetails.get(index);
+                if (mFirstContactBound) {
+                    contactHolder.setContactDetails(getContactAt(position));
+                    return;
+                }
+                try (TraceEvent e = TraceEvent.scoped("PickerAdapter.bindFirstContact",
+                             TraceEvent.enabled() ? "contacts=" + mContactDetails.size() : null)) {
+                    contactHolder.setContactDetails(getContactAt(position));
                 }
+                mFirstContactBound = true;
+                TraceEvent.finishAsync("ContactsPicker.TimeToFirstContact", hashCode());
+                recordTimeToFirstContact();
+                measureTimeToFirstContactDrawn(holder.itemView);
+        }
+    }
 
-                contactHolder.setContactDetails(contact);
+    /**
+     * @param position The position of a row in the RecyclerView.
+     * @return The contact shown in the row, or null if the row does not show a contact (or does
+     *         not exist).
+     */
+    ContactDetails getContactAt(int position) {
+        if (position < 0 || position >= getItemCount()) return null;
+        if (!mSearchMode || mSearchResults == null) {
+            // Subtract one because the first view is the Select All checkbox when not in search
+            // mode.
+            int index = position - (mSearchMode ? 0 : 1);
+            return index >= 0 ? mContactDetails.get(index) : null;
         }
+        return mContactDetails.get(mSearchResults[position]);
+    }
+
+    /**
+     * @return The indexer to keep the selection of contacts with.
+     */
+    SelectionDelegate.ItemIndexer<ContactDetails> getContactsIndexer() {
+        return mContactsIndexer;
+    }
+
+    /**
+     * @return The alphabetical index of the contacts shown, or null when showing search results
+     *         (or before any contacts have been fetched).
+     */
+    ContactsSectionIndex getSectionIndex() {
+        return mContactDetails == null || mSearchResults != null ? null : mSectionIndex;
+    }
+
+    /**
+     * @param section A section of the index returned by {@link #getSectionIndex}.
+     * @return The position of the row showing the first contact in the section.
+     */
+    int getPositionForSection(int section) {
+        // The first view is the Select All checkbox when not in search mode.
+        return mSectionIndex.getPositionForSection(section) + (mSearchMode ? 0 : 1);
+    }
+
+    /**
+     * @param position The position of a row in the RecyclerView.
+     * @return The section (of the index returned by {@link #getSectionIndex}) of the contact in
+     *         the row.
+     */
+    int getSectionForPosition(int position) {
+        return mSectionIndex.getSectionForPosition(Math.max(0, position - (mSearchMode ? 0 : 1)));
     }
 
     @Override
@@ -246,12 +738,60 @@ public class PickerAdapter extends Adapter<RecyclerView.ViewHolder>
     // not a contact, obviously). To get the total number of contacts use getAllContacts().size()
     // instead.
     public int getItemCount() {
-        if (mSearchResults != null) return mSearchResults.size();
+        if (mSearchResults != null) return mSearchResults.length;
         if (mContactDetails == null || mContactDetails.size() == 0) return 0;
         // Add one entry to account for the Select All checkbox, when not searching.
         return mContactDetails.size() + (mSearchMode ? 0 : 1);
     }
 
+    /**
+     * Records how long it took from opening the picker until the first contact was shown, split
+     * by whether the contacts came from the snapshot or straight from the contacts provider.
+     */
+    private void recordTimeToFirstContact() {
+        if (mWorkerTask == null) return;
+        String source = mWorkerTask.loadedFromSnapshot() ? "Snapshot" : "Cold";
+        RecordHistogram.recordTimesHistogram("Android.ContactsPicker.TimeToFirstContact." + source,
+                SystemClock.elapsedRealtime() - mCreationTimeMs);
+    }
+
+    /**
+     * Measures how long it took from opening the picker until the first contact row was drawn.
+     * @param itemView The row the first contact is bound to.
+     */
+    private void measureTimeToFirstContactDrawn(final View itemView) {
+        // The row isn't attached yet, so the listener goes on a temporary observer that is merged
+        // into the window's when it is. It has to be removed from the latter, which is why the
+        // observer is looked up again (instead of kept from here).
+        itemView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        itemView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        if (mTimeToFirstContactDrawnMs == -1) {
+                            mTimeToFirstContactDrawnMs =
+                                    SystemClock.elapsedRealtime() - mCreationTimeMs;
+                            maybeRecordTimeToFirstContactDrawn();
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Records how long it took from opening the picker until the first contact row was drawn,
+     * split by the number of contacts. Waits until the contacts have loaded (while they stream
+     * in, the first row is drawn long before their number is known).
+     */
+    private void maybeRecordTimeToFirstContactDrawn() {
+        if (mTimeToFirstContactDrawnMs == -1 || mLoading || mTimeToFirstContactDrawnRecorded) {
+            return;
+        }
+        mTimeToFirstContactDrawnRecorded = true;
+        mCategoryView.getMetrics().recordTime(
+                "Android.ContactsPicker.TimeToFirstContactDrawn", mTimeToFirstContactDrawnMs);
+    }
+
     // TopView.ChipToggledCallback:
 
     @Override
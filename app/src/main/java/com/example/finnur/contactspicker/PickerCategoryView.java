@@ -5,19 +5,23 @@
 package com.example.finnur.contactspicker;
 
 import android.app.Activity;  // Android Studio project only.
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.graphics.Bitmap;  // Android Studio project only.
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.util.LruCache;  // Android Studio project only.
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
 
 import org.chromium.base.ApiCompatibilityUtils;
+import org.chromium.base.SysUtils;
+import org.chromium.base.TraceEvent;
 import org.chromium.base.VisibleForTesting;
 import org.chromium.base.metrics.RecordHistogram;
 // import org.chromium.chrome.R;
@@ -46,7 +50,7 @@ import java.util.Set;
  */
 public class PickerCategoryView extends OptimizedFrameLayout
         implements View.OnClickListener, RecyclerView.RecyclerListener,
-                   SelectionDelegate.SelectionObserver<ContactDetails>,
+                   SelectionDelegate.SelectionChangeObserver<ContactDetails>,
                    SelectableListToolbar.SearchDelegate, TopView.SelectAllToggleCallback {
     // These values are written to logs.  New enum values can be added, but existing
     // enums must never be renumbered or deleted and reused.
@@ -59,6 +63,15 @@ public class PickerCategoryView extends OptimizedFrameLayout
     private static final int ICON_CORNER_RADIUS_DP = 20;
     private static final int ICON_TEXT_SIZE_DP = 12;
 
+    // The maximum number of icons (one per first letter) kept for contacts without a photo.
+    private static final int MAX_INITIALS_ICONS = 64;
+
+    // The maximum total size of the icon cache (in kilobytes).
+    private static final int MAX_ICON_CACHE_SIZE_KB = 5 * 1024;
+
+    // The maximum total size of the bitmaps kept around for decoding icons into.
+    private static final int ICON_POOL_SIZE_BYTES = 512 * 1024;
+
     // The dialog that owns us.
     private ContactsPickerDialog mDialog;
 
@@ -86,15 +99,30 @@ public class PickerCategoryView extends OptimizedFrameLayout
     // The layout manager for the RecyclerView.
     private LinearLayoutManager mLayoutManager;
 
-    // A helper class to draw the icon for each contact.
-    private RoundedIconGenerator mIconGenerator;
+    // The alphabetical index shown over the RecyclerView, for jumping to a letter.
+    private ContactsFastScroller mFastScroller;
+
+    // The icons (drawn by a RoundedIconGenerator) for contacts without a photo.
+    private InitialsIconCache mInitialsIcons;
 
     // The {@link SelectionDelegate} keeping track of which contacts are selected.
     private SelectionDelegate<ContactDetails> mSelectionDelegate;
 
-    // Android Studio uses the LRU Cache directly, Chrome uses the BitmapCache.
+    // Android Studio uses a ContactIconCache, Chrome uses the BitmapCache.
     // A cache for contact images, lazily created.
-    private LruCache<String, Bitmap> mBitmapCache;
+    private ContactIconCache mBitmapCache;
+
+    // Fetches the contact images that are not in the cache, in batches.
+    private ContactIconLoader mIconLoader;
+
+    // Requests the icons of the rows about to come into view while the list scrolls.
+    private ContactIconPrefetcher mIconPrefetcher;
+
+    // Records the timings of the picker, split by the number of contacts.
+    private final ContactsPickerMetrics mMetrics = new ContactsPickerMetrics();
+
+    // Shrinks the icon cache when the system is low on memory (while the dialog is showing).
+    private ComponentCallbacks2 mMemoryCallbacks;
 
     // The search icon.
     private ImageView mSearchButton;
@@ -135,15 +163,20 @@ public class PickerCategoryView extends OptimizedFrameLayout
 
         mSelectionDelegate = new SelectionDelegate<ContactDetails>();
         if (!multiSelectionAllowed) mSelectionDelegate.setSingleSelectionMode();
-        mSelectionDelegate.addObserver(this);
+        mSelectionDelegate.addChangeObserver(this);
 
         Resources resources = context.getResources();
         int iconColor =
                 ApiCompatibilityUtils.getColor(resources, R.color.default_favicon_background_color);
-        mIconGenerator = new RoundedIconGenerator(resources, ICON_SIZE_DP, ICON_SIZE_DP,
-                ICON_CORNER_RADIUS_DP, iconColor, ICON_TEXT_SIZE_DP);
-
-        View root = LayoutInflater.from(context).inflate(R.layout.contacts_picker_dialog, this);
+        RoundedIconGenerator iconGenerator = new RoundedIconGenerator(resources, ICON_SIZE_DP,
+                ICON_SIZE_DP, ICON_CORNER_RADIUS_DP, iconColor, ICON_TEXT_SIZE_DP);
+        mInitialsIcons = new InitialsIconCache(resources, iconGenerator, iconColor,
+                (int) (resources.getDisplayMetrics().density * ICON_SIZE_DP), MAX_INITIALS_ICONS);
+
+        View root;
+        try (TraceEvent e = TraceEvent.scoped("PickerCategoryView.inflate")) {
+            root = LayoutInflater.from(context).inflate(R.layout.contacts_picker_dialog, this);
+        }
         mSelectableListLayout =
                 (SelectableListLayout<ContactDetails>) root.findViewById(R.id.selectable_list);
         mSelectableListLayout.initializeEmptyView(
@@ -151,6 +184,7 @@ public class PickerCategoryView extends OptimizedFrameLayout
                 R.string.contacts_picker_no_contacts_found);
 
         mPickerAdapter = new PickerAdapter(this, context.getContentResolver(), formattedOrigin);
+        mSelectionDelegate.setItemIndexer(mPickerAdapter.getContactsIndexer());
         mRecyclerView = mSelectableListLayout.initializeRecyclerView(mPickerAdapter);
         int titleId = multiSelectionAllowed ? R.string.contacts_picker_select_contacts
                                             : R.string.contacts_picker_select_contact;
@@ -170,19 +204,48 @@ public class PickerCategoryView extends OptimizedFrameLayout
         mLayoutManager = new LinearLayoutManager(context);
         mRecyclerView.setHasFixedSize(true);
         mRecyclerView.setLayoutManager(mLayoutManager);
-
-        // Each image (on a Pixel 2 phone) is about 30-40K. Calculate a proportional amount of the
+        // Rows release their icons (for reuse) when recycled.
+        mRecyclerView.setRecyclerListener(this);
+
+        mFastScroller = new ContactsFastScroller(context, mPickerAdapter, mLayoutManager);
+        // Drawn over the RecyclerView, in the frame holding it.
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT);
+        ((ViewGroup) mRecyclerView.getParent()).addView(mFastScroller, params);
+
+        // Images are decoded down-sampled to the size they are shown at, with two bytes per pixel
+        // when opaque, so the provider's 96px thumbnails take about 18K each (instead of the
+        // 30-40K they took at four bytes per pixel). Calculate a proportional amount of the
         // available memory, but cap it at 5MB.
         final long maxMemory = ConversionUtils.bytesToKilobytes(Runtime.getRuntime().maxMemory());
-        int iconCacheSizeKb = (int) (maxMemory / 8); // 1/8th of the available memory.
+        int iconCacheSizeKb = (int) Math.min(maxMemory / 8, MAX_ICON_CACHE_SIZE_KB);
 
         // Android Studio project only:
-        mBitmapCache = new LruCache<String, Bitmap>(iconCacheSizeKb) {
+        IconBitmapPool bitmapPool = new IconBitmapPool(ICON_POOL_SIZE_BYTES);
+        mBitmapCache = new ContactIconCache(iconCacheSizeKb, bitmapPool);
+        if (SysUtils.isCurrentlyLowMemory()) mBitmapCache.shrink();
+        mMemoryCallbacks = new ComponentCallbacks2() {
             @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                return (int) ConversionUtils.bytesToKilobytes(bitmap.getByteCount());
+            public void onTrimMemory(int level) {
+                mBitmapCache.onTrimMemory(level);
             }
+
+            @Override
+            public void onLowMemory() {
+                mBitmapCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {}
         };
+        context.getApplicationContext().registerComponentCallbacks(mMemoryCallbacks);
+
+        int iconSizePx = Math.round(ICON_SIZE_DP * resources.getDisplayMetrics().density);
+        mIconLoader =
+                new ContactIconLoader(context.getContentResolver(), iconSizePx, bitmapPool);
+        mIconPrefetcher = new ContactIconPrefetcher(
+                mPickerAdapter, mLayoutManager, mBitmapCache, mIconLoader);
+        mRecyclerView.addOnScrollListener(mIconPrefetcher);
     }
 
     /**
@@ -247,17 +310,43 @@ public class PickerCategoryView extends OptimizedFrameLayout
         mPickerAdapter.setSearchString(query);
     }
 
-    // SelectionDelegate.SelectionObserver:
+    /**
+     * Brings the selection in line with the contacts, after they were updated: contacts that
+     * were deleted are no longer selected, and contacts that changed are selected as they are now.
+     * @param selection The contacts selected before the update (a copy).
+     * @param contacts The up to date contacts.
+     */
+    void updateSelection(Set<ContactDetails> selection, List<ContactDetails> contacts) {
+        if (selection.isEmpty() && (mPreviousSelection == null || mPreviousSelection.isEmpty())) {
+            return;
+        }
+
+        // Contacts are equal when their ids are, so this finds the up to date details of the
+        // selected contacts.
+        HashSet<ContactDetails> newSelection = new HashSet<ContactDetails>();
+        HashSet<ContactDetails> newPreviousSelection = new HashSet<ContactDetails>();
+        for (ContactDetails contact : contacts) {
+            if (selection.contains(contact)) newSelection.add(contact);
+            if (mPreviousSelection != null && mPreviousSelection.contains(contact)) {
+                newPreviousSelection.add(contact);
+            }
+        }
+        if (mPreviousSelection != null) mPreviousSelection = newPreviousSelection;
+        if (!selection.isEmpty()) mSelectionDelegate.setSelectedItems(newSelection);
+    }
+
+    // SelectionDelegate.SelectionChangeObserver:
 
     @Override
-    public void onSelectionStateChange(List<ContactDetails> selectedItems) {
+    public void onSelectionChanged(SelectionDelegate.SelectionChange<ContactDetails> change) {
         // Once a selection is made, drop out of search mode. Note: This function is also called
-        // when entering search mode (with selectedItems then being 0 in size).
-        if (mToolbar.isSearching() && selectedItems.size() > 0) {
+        // when entering search mode (with nothing then being selected).
+        int selectedCount = change.getSelectedItemCount();
+        if (mToolbar.isSearching() && selectedCount > 0) {
             mToolbar.hideSearchView();
         }
 
-        boolean allSelected = selectedItems.size() == mPickerAdapter.getItemCount() - 1;
+        boolean allSelected = selectedCount == mPickerAdapter.getItemCount() - 1;
         if (mTopView != null) mTopView.updateSelectAllCheckbox(allSelected);
     }
 
@@ -265,8 +354,10 @@ public class PickerCategoryView extends OptimizedFrameLayout
 
     @Override
     public void onViewRecycled(RecyclerView.ViewHolder holder) {
+        // The Select All row has no icon.
+        if (!(holder instanceof ContactViewHolder)) return;
         ContactViewHolder bitmapHolder = (ContactViewHolder) holder;
-        bitmapHolder.cancelIconRetrieval();
+        bitmapHolder.onRecycled();
     }
 
     // TopView.SelectAllToggleCallback:
@@ -274,9 +365,9 @@ public class PickerCategoryView extends OptimizedFrameLayout
     @Override
     public void onSelectAllToggled(boolean allSelected) {
         if (allSelected) {
-            mPreviousSelection = mSelectionDelegate.getSelectedItems();
-            mSelectionDelegate.setSelectedItems(
-                    new HashSet<ContactDetails>(mPickerAdapter.getAllContacts()));
+            // The selection is a view onto the selection delegate, so it is copied out first.
+            mPreviousSelection = new HashSet<ContactDetails>(mSelectionDelegate.getSelectedItems());
+            mSelectionDelegate.selectAll();
             mListener.onContactsPickerUserAction(
                     ContactsPickerListener.ContactsPickerAction.SELECT_ALL, /*contacts=*/null,
                     /*percentageShared=*/0, /*propertiesRequested=*/0);
@@ -309,14 +400,22 @@ public class PickerCategoryView extends OptimizedFrameLayout
         return mSelectionDelegate;
     }
 
-    RoundedIconGenerator getIconGenerator() {
-        return mIconGenerator;
+    InitialsIconCache getInitialsIconCache() {
+        return mInitialsIcons;
     }
 
-    /*BitmapCache*/ LruCache<String, Bitmap> getIconCache() {
+    /*BitmapCache*/ ContactIconCache getIconCache() {
         return mBitmapCache;
     }
 
+    ContactIconLoader getIconLoader() {
+        return mIconLoader;
+    }
+
+    ContactsPickerMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /*Chrome*/Activity getActivity() {
         return mActivity;
     }
@@ -397,6 +496,8 @@ public class PickerCategoryView extends OptimizedFrameLayout
                 action, contacts, percentageShared, propertiesRequested);
         mDialog.dismiss();
         UiUtils.onContactsPickerDismissed();
+        getContext().getApplicationContext().unregisterComponentCallbacks(mMemoryCallbacks);
+        mPickerAdapter.onDestroy();
         recordFinalUmaStats(
                 umaId, contactCount, selectCount, percentageShared, propertiesRequested);
     }
@@ -419,6 +520,29 @@ public class PickerCategoryView extends OptimizedFrameLayout
                 "Android.ContactsPicker.SelectPercentage", percentageShared);
         RecordHistogram.recordEnumeratedHistogram("Android.ContactsPicker.PropertiesRequested",
                 propertiesRequested, ContactsPickerPropertiesRequested.PROPERTIES_BOUNDARY);
+        RecordHistogram.recordCountHistogram(
+                "Android.ContactsPicker.IconCache.Hits", mBitmapCache.getHitCount());
+        RecordHistogram.recordCountHistogram(
+                "Android.ContactsPicker.IconCache.Misses", mBitmapCache.getMissCount());
+        RecordHistogram.recordCountHistogram(
+                "Android.ContactsPicker.IconCache.Evictions", mBitmapCache.getEvictionCount());
+        RecordHistogram.recordCountHistogram("Android.ContactsPicker.InitialsIcons.Generated",
+                mInitialsIcons.getGeneratedCount());
+        // The share of rows that found their icon in the cache when they came into view.
+        int lookups = mBitmapCache.getHitCount() + mBitmapCache.getMissCount();
+        if (lookups > 0) {
+            int hitRatio = mBitmapCache.getHitCount() * 100 / lookups;
+            RecordHistogram.recordPercentageHistogram(
+                    "Android.ContactsPicker.IconCache.VisibleHitRatio", hitRatio);
+            RecordHistogram.recordPercentageHistogram(
+                    "Android.ContactsPicker.IconCache.VisibleHitRatio"
+                            + ContactsPickerMetrics.getContactCountTier(contactCount),
+                    hitRatio);
+        }
+        RecordHistogram.recordCountHistogram("Android.ContactsPicker.IconPrefetch.Requested",
+                mIconPrefetcher.getPrefetchCount());
+        RecordHistogram.recordCountHistogram(
+                "Android.ContactsPicker.IconPrefetch.Cancelled", mIconPrefetcher.getCancelCount());
     }
 
     @VisibleForTesting
@@ -0,0 +1,544 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.metrics;
+
+import org.chromium.base.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An in-process backend for {@link RecordHistogram}, for when there is no native library to
+ * record the histograms with (as in the Android Studio project). Histograms are bucketed the way
+ * base/metrics buckets them (exponentially for counts and times, linearly for enumerations), so
+ * the buckets line up with the ones the same histograms have in Chrome.
+ *
+ * Recording is lock-free, and allocates nothing once the histogram exists: the histogram is
+ * looked up by the key RecordHistogram caches for it, and the sample is counted in one of a few
+ * stripes of atomic counters (picked by thread, so that threads recording into the same
+ * histogram rarely contend for a counter). Snapshots add the stripes up.
+ */
+public class LocalHistogramRecorder implements RecordHistogram.Natives {
+    // The largest sample a histogram can hold (base::HistogramBase::kSampleType_MAX), and the
+    // most buckets it can have (base::Histogram::kBucketCount_MAX).
+    private static final int SAMPLE_MAX = Integer.MAX_VALUE;
+    private static final int BUCKET_COUNT_MAX = 16384;
+
+    // The number of stripes of counters per histogram (a power of two).
+    private static final int STRIPE_COUNT =
+            Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    // The number of counters that fit in a cache line (of 64 bytes). Stripes are padded to a
+    // multiple of it, with at least a line between them, so that threads counting in different
+    // stripes never write to the same line.
+    private static final int COUNTERS_PER_CACHE_LINE = 8;
+
+    // The number of distinct samples a sparse histogram holds (a power of two). Samples beyond
+    // that are only counted towards the total.
+    private static final int SPARSE_CAPACITY = 512;
+
+    // The width (in characters) of the bars drawn for the buckets in a dump.
+    private static final int DUMP_BAR_WIDTH = 72;
+
+    private static final LocalHistogramRecorder sInstance = new LocalHistogramRecorder();
+
+    /**
+     * A histogram, and the counters for its samples.
+     */
+    private abstract static class Histogram {
+        final String mName;
+
+        // The key RecordHistogram caches for the histogram (its position in mHistogramsById,
+        // plus one), or 0 until registered.
+        long mKey;
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        /** Counts a sample. */
+        abstract void add(int sample);
+
+        /** @return The number of samples counted in the bucket holding |sample|. */
+        abstract long getSampleCount(int sample);
+
+        /** @return The counts of the histogram so far. */
+        abstract HistogramSnapshot snapshot();
+    }
+
+    /**
+     * A histogram with a fixed set of buckets, each one counting the samples from its lower
+     * bound up to (but not including) the lower bound of the next one.
+     */
+    private static final class BucketedHistogram extends Histogram {
+        // The lower bounds of the buckets, followed by SAMPLE_MAX.
+        private final int[] mRanges;
+
+        // The counters of each stripe: the count for each bucket, followed by the sum of the
+        // samples (and padding, up to mStride counters).
+        private final AtomicLongArray mCounters;
+        private final int mBucketCount;
+        private final int mStride;
+
+        BucketedHistogram(String name, int[] ranges) {
+            super(name);
+            mRanges = ranges;
+            mBucketCount = ranges.length - 1;
+            // The array itself needn't start on a cache line, hence the extra line of padding.
+            mStride = (mBucketCount + COUNTERS_PER_CACHE_LINE) / COUNTERS_PER_CACHE_LINE
+                            * COUNTERS_PER_CACHE_LINE
+                    + COUNTERS_PER_CACHE_LINE;
+            mCounters = new AtomicLongArray(STRIPE_COUNT * mStride);
+        }
+
+        @Override
+        void add(int sample) {
+            if (sample > SAMPLE_MAX - 1) sample = SAMPLE_MAX - 1;
+            if (sample < 0) sample = 0;
+            int row = ((int) Thread.currentThread().getId() & (STRIPE_COUNT - 1)) * mStride;
+            mCounters.incrementAndGet(row + getBucketIndex(sample));
+            mCounters.addAndGet(row + mBucketCount, sample);
+        }
+
+        /** @return The bucket holding |sample| (the last one starting at or below it). */
+        private int getBucketIndex(int sample) {
+            int low = 0;
+            int high = mRanges.length - 2;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (mRanges[middle] <= sample) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        long getSampleCount(int sample) {
+            int bucket = getBucketIndex(Math.max(0, sample));
+            long count = 0;
+            for (int row = 0; row < mCounters.length(); row += mStride) {
+                count += mCounters.get(row + bucket);
+            }
+            return count;
+        }
+
+        @Override
+        HistogramSnapshot snapshot() {
+            long[] counts = new long[mBucketCount];
+            long sum = 0;
+            for (int row = 0; row < mCounters.length(); row += mStride) {
+                for (int i = 0; i < mBucketCount; i++) counts[i] += mCounters.get(row + i);
+                sum += mCounters.get(row + mBucketCount);
+            }
+            return new HistogramSnapshot(mName, mRanges, counts, sum);
+        }
+    }
+
+    /**
+     * A histogram with a bucket per distinct sample, kept in an open-addressed table. Each slot
+     * holds its sample along with an OCCUPIED bit, so a slot is claimed for a new sample (and the
+     * sample written to it) with a single compare-and-set, and is never seen half-written.
+     */
+    private static final class SparseHistogram extends Histogram {
+        private static final long EMPTY = 0;
+        private static final long OCCUPIED = 1L << 32;
+
+        private final AtomicLongArray mSlots = new AtomicLongArray(SPARSE_CAPACITY);
+        private final AtomicLongArray mCounts = new AtomicLongArray(SPARSE_CAPACITY);
+
+        // The samples that did not fit in the table.
+        private final AtomicLong mDroppedCount = new AtomicLong();
+        private final AtomicLong mDroppedSum = new AtomicLong();
+
+        SparseHistogram(String name) {
+            super(name);
+        }
+
+        @Override
+        void add(int sample) {
+            int slot = findSlot(sample, true);
+            if (slot != -1) {
+                mCounts.incrementAndGet(slot);
+                return;
+            }
+            mDroppedCount.incrementAndGet();
+            mDroppedSum.addAndGet(sample);
+        }
+
+        /**
+         * @param sample The sample to look for.
+         * @param claim Whether to claim a slot for the sample if it has none.
+         * @return The slot holding the sample, or -1 if it has none (and none could be claimed).
+         */
+        private int findSlot(int sample, boolean claim) {
+            int slot = (sample * 0x9e3779b9) >>> 23 & (SPARSE_CAPACITY - 1);
+            long entry = OCCUPIED | (sample & 0xffffffffL);
+            for (int probe = 0; probe < SPARSE_CAPACITY; probe++) {
+                long current = mSlots.get(slot);
+                if (current == EMPTY) {
+                    if (!claim) return -1;
+                    if (mSlots.compareAndSet(slot, EMPTY, entry)) return slot;
+                    // Another thread claimed the slot first, maybe for the same sample.
+                    current = mSlots.get(slot);
+                }
+                if (current == entry) return slot;
+                slot = (slot + 1) & (SPARSE_CAPACITY - 1);
+            }
+            return -1;
+        }
+
+        @Override
+        long getSampleCount(int sample) {
+            int slot = findSlot(sample, false);
+            return slot == -1 ? 0 : mCounts.get(slot);
+        }
+
+        @Override
+        HistogramSnapshot snapshot() {
+            long[] entries = new long[SPARSE_CAPACITY];
+            int entryCount = 0;
+            for (int slot = 0; slot < SPARSE_CAPACITY; slot++) {
+                long entry = mSlots.get(slot);
+                if (entry == EMPTY || mCounts.get(slot) == 0) continue;
+                // Sorted by sample, so the slot goes in the low bits.
+                entries[entryCount++] = ((long) (int) entry << 32) | slot;
+            }
+            Arrays.sort(entries, 0, entryCount);
+
+            int[] ranges = new int[entryCount + 1];
+            long[] counts = new long[entryCount];
+            long sum = mDroppedSum.get();
+            for (int i = 0; i < entryCount; i++) {
+                int sample = (int) (entries[i] >> 32);
+                counts[i] = mCounts.get((int) entries[i]);
+                ranges[i] = sample;
+                sum += sample * counts[i];
+            }
+            ranges[entryCount] = entryCount == 0 || ranges[entryCount - 1] == SAMPLE_MAX
+                    ? SAMPLE_MAX
+                    : ranges[entryCount - 1] + 1;
+            return new HistogramSnapshot(mName, ranges, counts, sum, mDroppedCount.get());
+        }
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static final class HistogramSnapshot {
+        private final String mName;
+        private final int[] mRanges;
+        private final long[] mCounts;
+        private final long mSum;
+        private final long mTotalCount;
+
+        HistogramSnapshot(String name, int[] ranges, long[] counts, long sum) {
+            this(name, ranges, counts, sum, 0);
+        }
+
+        HistogramSnapshot(String name, int[] ranges, long[] counts, long sum, long uncounted) {
+            mName = name;
+            mRanges = ranges;
+            mCounts = counts;
+            mSum = sum;
+            long total = uncounted;
+            for (long count : counts) total += count;
+            mTotalCount = total;
+        }
+
+        /** @return The name of the histogram. */
+        public String getName() {
+            return mName;
+        }
+
+        /** @return The number of buckets. */
+        public int getBucketCount() {
+            return mCounts.length;
+        }
+
+        /**
+         * @param bucket The bucket (between 0 and getBucketCount() - 1).
+         * @return The smallest sample the bucket holds.
+         */
+        public int getBucketMin(int bucket) {
+            return mRanges[bucket];
+        }
+
+        /**
+         * @param bucket The bucket (between 0 and getBucketCount() - 1).
+         * @return The sample the next bucket starts at.
+         */
+        public int getBucketMax(int bucket) {
+            return mRanges[bucket + 1];
+        }
+
+        /**
+         * @param bucket The bucket (between 0 and getBucketCount() - 1).
+         * @return The number of samples in the bucket.
+         */
+        public long getCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        /** @return The number of samples recorded. */
+        public long getTotalCount() {
+            return mTotalCount;
+        }
+
+        /** @return The sum of the samples recorded. */
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * Writes the histogram out as text, in the format of chrome://histograms (leaving out
+         * the empty buckets).
+         * @param writer The writer to write to.
+         */
+        public void writeTo(Writer writer) throws IOException {
+            double mean = mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+            writer.write(String.format(Locale.US,
+                    "Histogram: %s recorded %d samples, mean = %.1f\n", mName, mTotalCount, mean));
+            long maxCount = 0;
+            for (long count : mCounts) maxCount = Math.max(maxCount, count);
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] == 0) continue;
+                char[] bar = new char[(int) (mCounts[i] * DUMP_BAR_WIDTH / maxCount)];
+                Arrays.fill(bar, '-');
+                writer.write(String.format(Locale.US, "%-8d %sO (%d = %.1f%%)\n", mRanges[i],
+                        new String(bar), mCounts[i], mCounts[i] * 100.0 / mTotalCount));
+            }
+            writer.write('\n');
+        }
+    }
+
+    // The histograms, by name and by key.
+    private final ConcurrentHashMap<String, Histogram> mHistograms =
+            new ConcurrentHashMap<String, Histogram>();
+    private volatile Histogram[] mHistogramsById = new Histogram[64];
+    private int mHistogramCount;
+
+    /** @return The recorder. */
+    public static LocalHistogramRecorder get() {
+        return sInstance;
+    }
+
+    private LocalHistogramRecorder() {}
+
+    /**
+     * @param name The name of the histogram.
+     * @param key The key RecordHistogram cached for the histogram (or 0 if none).
+     * @return The histogram, or null if it has not been recorded to yet.
+     */
+    private Histogram find(String name, long key) {
+        Histogram[] histograms = mHistogramsById;
+        if (key > 0 && key <= histograms.length) {
+            Histogram histogram = histograms[(int) key - 1];
+            if (histogram != null) return histogram;
+        }
+        return mHistograms.get(name);
+    }
+
+    /**
+     * Registers a new histogram (unless another thread registered one by the same name first).
+     * @param histogram The histogram.
+     * @return The histogram registered under its name.
+     */
+    private synchronized Histogram register(Histogram histogram) {
+        Histogram existing = mHistograms.get(histogram.mName);
+        if (existing != null) return existing;
+
+        Histogram[] histograms = mHistogramsById;
+        if (mHistogramCount == histograms.length) {
+            histograms = Arrays.copyOf(histograms, mHistogramCount * 2);
+        }
+        histogram.mKey = mHistogramCount + 1;
+        histograms[mHistogramCount++] = histogram;
+        mHistogramsById = histograms;
+        mHistograms.put(histogram.mName, histogram);
+        return histogram;
+    }
+
+    private long recordExponential(
+            String name, long key, int sample, int min, int max, int bucketCount) {
+        Histogram histogram = find(name, key);
+        if (histogram == null) {
+            histogram = register(
+                    new BucketedHistogram(name, getExponentialRanges(min, max, bucketCount)));
+        }
+        histogram.add(sample);
+        return histogram.mKey;
+    }
+
+    private long recordLinear(
+            String name, long key, int sample, int min, int max, int bucketCount) {
+        Histogram histogram = find(name, key);
+        if (histogram == null) {
+            histogram = register(
+                    new BucketedHistogram(name, getLinearRanges(min, max, bucketCount)));
+        }
+        histogram.add(sample);
+        return histogram.mKey;
+    }
+
+    /**
+     * Adjusts the arguments of a histogram the way base::Histogram does: a minimum below 1 is
+     * raised to 1, and there are no more buckets than there are samples between the minimum and
+     * the maximum (plus the underflow and overflow buckets). Invalid arguments get a dummy
+     * histogram.
+     * @return The minimum, the maximum and the number of buckets.
+     */
+    private static int[] inspectConstructionArguments(int min, int max, int bucketCount) {
+        if (min < 1) min = 1;
+        if (max >= SAMPLE_MAX) max = SAMPLE_MAX - 1;
+        if (bucketCount > BUCKET_COUNT_MAX) bucketCount = BUCKET_COUNT_MAX;
+        if (bucketCount < 3 || max <= min) return new int[] {1, 2, 3};
+        if (bucketCount > (long) max - min + 2) bucketCount = max - min + 2;
+        return new int[] {min, max, bucketCount};
+    }
+
+    /**
+     * Works out the buckets of an exponential histogram, as base::Histogram does: an underflow
+     * bucket, then buckets growing by (roughly) the same ratio from |min| up to |max|, then an
+     * overflow bucket. Where rounding would make a bucket empty, it is made one sample wide.
+     * @return The lower bounds of the buckets, followed by SAMPLE_MAX.
+     */
+    @VisibleForTesting
+    static int[] getExponentialRanges(int min, int max, int bucketCount) {
+        int[] arguments = inspectConstructionArguments(min, max, bucketCount);
+        min = arguments[0];
+        max = arguments[1];
+        bucketCount = arguments[2];
+
+        int[] ranges = new int[bucketCount + 1];
+        double logMax = Math.log(max);
+        int current = min;
+        ranges[1] = current;
+        for (int i = 2; i < bucketCount; i++) {
+            double logCurrent = Math.log(current);
+            double logNext = logCurrent + (logMax - logCurrent) / (bucketCount - i);
+            int next = (int) Math.round(Math.exp(logNext));
+            current = next > current ? next : current + 1;
+            ranges[i] = current;
+        }
+        ranges[bucketCount] = SAMPLE_MAX;
+        return ranges;
+    }
+
+    /**
+     * Works out the buckets of a linear histogram, as base::LinearHistogram does: an underflow
+     * bucket, then evenly spaced buckets from |min| up to |max|, then an overflow bucket.
+     * @return The lower bounds of the buckets, followed by SAMPLE_MAX.
+     */
+    @VisibleForTesting
+    static int[] getLinearRanges(int min, int max, int bucketCount) {
+        int[] arguments = inspectConstructionArguments(min, max, bucketCount);
+        min = arguments[0];
+        max = arguments[1];
+        bucketCount = arguments[2];
+
+        int[] ranges = new int[bucketCount + 1];
+        for (int i = 1; i < bucketCount; i++) {
+            double range = ((double) min * (bucketCount - 1 - i) + (double) max * (i - 1))
+                    / (bucketCount - 2);
+            ranges[i] = (int) (range + 0.5);
+        }
+        ranges[bucketCount] = SAMPLE_MAX;
+        return ranges;
+    }
+
+    /**
+     * @return The counts of all histograms recorded to so far, sorted by name.
+     */
+    public List<HistogramSnapshot> snapshot() {
+        ArrayList<Histogram> histograms = new ArrayList<Histogram>(mHistograms.values());
+        ArrayList<HistogramSnapshot> snapshots = new ArrayList<HistogramSnapshot>();
+        for (Histogram histogram : histograms) snapshots.add(histogram.snapshot());
+        Collections.sort(snapshots, (a, b) -> a.getName().compareTo(b.getName()));
+        return snapshots;
+    }
+
+    /**
+     * Writes the counts of all histograms recorded to so far out as text.
+     * @param writer The writer to write to.
+     */
+    public void dump(Writer writer) throws IOException {
+        for (HistogramSnapshot snapshot : snapshot()) snapshot.writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the counts of all histograms recorded to so far to a file (replacing it).
+     * @param file The file to write to.
+     */
+    public void exportTo(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            dump(writer);
+        }
+    }
+
+    // RecordHistogram.Natives:
+
+    @Override
+    public long recordCustomTimesHistogramMilliseconds(
+            String name, long key, int duration, int min, int max, int numBuckets) {
+        return recordExponential(name, key, duration, min, max, numBuckets);
+    }
+
+    @Override
+    public long recordBooleanHistogram(String name, long key, boolean sample) {
+        return recordLinear(name, key, sample ? 1 : 0, 1, 2, 3);
+    }
+
+    @Override
+    public long recordEnumeratedHistogram(String name, long key, int sample, int boundary) {
+        return recordLinear(name, key, sample, 1, boundary, boundary + 1);
+    }
+
+    @Override
+    public long recordCustomCountHistogram(
+            String name, long key, int sample, int min, int max, int numBuckets) {
+        return recordExponential(name, key, sample, min, max, numBuckets);
+    }
+
+    @Override
+    public long recordLinearCountHistogram(
+            String name, long key, int sample, int min, int max, int numBuckets) {
+        return recordLinear(name, key, sample, min, max, numBuckets);
+    }
+
+    @Override
+    public long recordSparseHistogram(String name, long key, int sample) {
+        Histogram histogram = find(name, key);
+        if (histogram == null) histogram = register(new SparseHistogram(name));
+        histogram.add(sample);
+        return histogram.mKey;
+    }
+
+    @Override
+    public int getHistogramValueCountForTesting(String name, int sample) {
+        Histogram histogram = mHistograms.get(name);
+        return histogram == null ? 0 : (int) histogram.getSampleCount(sample);
+    }
+
+    @Override
+    public int getHistogramTotalCountForTesting(String name) {
+        Histogram histogram = mHistograms.get(name);
+        return histogram == null ? 0 : (int) histogram.snapshot().getTotalCount();
+    }
+}
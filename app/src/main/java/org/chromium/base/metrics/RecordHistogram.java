@@ -11,9 +11,8 @@ import org.chromium.base.annotations.JNINamespace;
 import org.chromium.base.annotations.MainDex;
 import org.chromium.base.annotations.NativeMethods;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Java API for recording UMA histograms.
@@ -25,13 +24,17 @@ import java.util.Map;
  *
  * Note: the JNI calls are relatively costly - avoid calling these methods in performance-critical
  * code.
+ *
+ * Android Studio project only: without native, the histograms are recorded by a
+ * {@link LocalHistogramRecorder}, which can dump them (see MainActivity's menu).
  */
 @JNINamespace("base::android")
 @MainDex
 public class RecordHistogram {
     private static Throwable sDisabledBy;
-    private static Map<String, Long> sCache =
-            Collections.synchronizedMap(new HashMap<String, Long>());
+    // Android Studio project only: a concurrent map (instead of a synchronized one), so that
+    // looking up the key of a histogram does not take a lock.
+    private static Map<String, Long> sCache = new ConcurrentHashMap<String, Long>();
 
     /**
      * Tests may not have native initialized, so they may need to disable metrics. The value should
@@ -48,6 +51,12 @@ public class RecordHistogram {
         sDisabledBy = disabled ? new Throwable() : null;
     }
 
+    // Android Studio project only: there is no native library to record the histograms with, so
+    // they are recorded in-process instead (Chrome uses RecordHistogramJni.get()).
+    private static Natives getNatives() {
+        return LocalHistogramRecorder.get();
+    }
+
     private static long getCachedHistogramKey(String name) {
         Long key = sCache.get(name);
         // Note: If key is null, we don't have it cached. In that case, pass 0
@@ -65,12 +74,10 @@ public class RecordHistogram {
      * @param sample sample to be recorded, either true or false
      */
     public static void recordBooleanHistogram(String name, boolean sample) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result = RecordHistogramJni.get().recordBooleanHistogram(name, key, sample);
+        long result = getNatives().recordBooleanHistogram(name, key, sample);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -83,13 +90,10 @@ public class RecordHistogram {
      *        lower than |boundary|
      */
     public static void recordEnumeratedHistogram(String name, int sample, int boundary) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result =
-                RecordHistogramJni.get().recordEnumeratedHistogram(name, key, sample, boundary);
+        long result = getNatives().recordEnumeratedHistogram(name, key, sample, boundary);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -143,13 +147,11 @@ public class RecordHistogram {
      */
     public static void recordCustomCountHistogram(
             String name, int sample, int min, int max, int numBuckets) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result = RecordHistogramJni.get().recordCustomCountHistogram(
-                name, key, sample, min, max, numBuckets);
+        long result =
+                getNatives().recordCustomCountHistogram(name, key, sample, min, max, numBuckets);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -163,13 +165,11 @@ public class RecordHistogram {
      */
     public static void recordLinearCountHistogram(
             String name, int sample, int min, int max, int numBuckets) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result = RecordHistogramJni.get().recordLinearCountHistogram(
-                name, key, sample, min, max, numBuckets);
+        long result =
+                getNatives().recordLinearCountHistogram(name, key, sample, min, max, numBuckets);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -179,12 +179,10 @@ public class RecordHistogram {
      * @param sample sample to be recorded, at least 0 and at most 100.
      */
     public static void recordPercentageHistogram(String name, int sample) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result = RecordHistogramJni.get().recordEnumeratedHistogram(name, key, sample, 101);
+        long result = getNatives().recordEnumeratedHistogram(name, key, sample, 101);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -194,12 +192,10 @@ public class RecordHistogram {
      *        values.
      */
     public static void recordSparseHistogram(String name, int sample) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
-        long result = RecordHistogramJni.get().recordSparseHistogram(name, key, sample);
+        long result = getNatives().recordSparseHistogram(name, key, sample);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -286,7 +282,6 @@ public class RecordHistogram {
 
     private static void recordCustomTimesHistogramMilliseconds(
             String name, long duration, long min, long max, int numBuckets) {
-        /* Not needed for Android Studio project.
         if (sDisabledBy != null) return;
         long key = getCachedHistogramKey(name);
         // Note: Duration, min and max are clamped to int here because that's what's expected by
@@ -294,10 +289,9 @@ public class RecordHistogram {
         // the types returned by TimeUnit and System.currentTimeMillis() APIs, from which these
         // values come.
         assert max == clampToInt(max);
-        long result = RecordHistogramJni.get().recordCustomTimesHistogramMilliseconds(
+        long result = getNatives().recordCustomTimesHistogramMilliseconds(
                 name, key, clampToInt(duration), clampToInt(min), clampToInt(max), numBuckets);
         if (result != key) sCache.put(name, result);
-        */
     }
 
     /**
@@ -307,10 +301,7 @@ public class RecordHistogram {
      */
     @VisibleForTesting
     public static int getHistogramValueCountForTesting(String name, int sample) {
-        /* Not needed for Android Studio project.
-        return RecordHistogramJni.get().getHistogramValueCountForTesting(name, sample);
-        */
-        return 0;
+        return getNatives().getHistogramValueCountForTesting(name, sample);
     }
 
     /**
@@ -319,10 +310,7 @@ public class RecordHistogram {
      */
     @VisibleForTesting
     public static int getHistogramTotalCountForTesting(String name) {
-        /* Not needed for Android Studio project.
-        return RecordHistogramJni.get().getHistogramTotalCountForTesting(name);
-        */
-        return 0;
+        return getNatives().getHistogramTotalCountForTesting(name);
     }
 
     /**
@@ -26,6 +26,7 @@ public class NumberRollView extends FrameLayout {
     private TextView mUpNumber;
     private TextView mDownNumber;
     private float mNumber;
+    private int mTargetNumber;
     private Animator mLastRollAnimator;
     private int mStringId;
     private int mStringIdForZero;
@@ -72,6 +73,9 @@ public class NumberRollView extends FrameLayout {
      * @param animate Whether it should smoothly animate to the number.
      */
     public void setNumber(int number, boolean animate) {
+        // Selection changes that leave the number as it is don't restart the roll.
+        if (animate && number == mTargetNumber) return;
+        mTargetNumber = number;
         if (mLastRollAnimator != null) mLastRollAnimator.cancel();
 
         if (animate) {
@@ -35,9 +35,8 @@ import org.chromium.chrome.browser.ui.widget.displaystyle.DisplayStyleObserver;
 import org.chromium.chrome.browser.ui.widget.displaystyle.HorizontalDisplayStyle;
 import org.chromium.chrome.browser.ui.widget.displaystyle.UiConfig;
 import org.chromium.chrome.browser.ui.widget.displaystyle.UiConfig.DisplayStyle;
-import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionObserver;
-
-import java.util.List;
+import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionChange;
+import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionChangeObserver;
 
 /**
  * Contains UI elements common to selectable list views: a loading view, empty view, selection
@@ -49,7 +48,7 @@ import java.util.List;
  * @param <E> The type of the selectable items this layout holds.
  */
 public class SelectableListLayout<E>
-        extends FrameLayout implements DisplayStyleObserver, SelectionObserver<E> {
+        extends FrameLayout implements DisplayStyleObserver, SelectionChangeObserver<E> {
 
     private static final int WIDE_DISPLAY_MIN_PADDING_DP = 16;
     private RecyclerView.Adapter mAdapter;
@@ -217,7 +216,7 @@ public class SelectableListLayout<E>
                 FadingShadow.POSITION_TOP);
 
         mShowShadowOnSelection = showShadowOnSelection;
-        delegate.addObserver(this);
+        delegate.addChangeObserver(this);
         setToolbarShadowVisibility();
 
         return mToolbar;
@@ -248,7 +247,7 @@ public class SelectableListLayout<E>
      */
     public void onDestroyed() {
         mAdapter.unregisterAdapterDataObserver(mAdapterObserver);
-        mToolbar.getSelectionDelegate().removeObserver(this);
+        mToolbar.getSelectionDelegate().removeChangeObserver(this);
         mToolbar.destroy();
         mRecyclerView.setAdapter(null);
     }
@@ -284,10 +283,10 @@ public class SelectableListLayout<E>
     }
 
     @Override
-    public void onSelectionStateChange(List<E> selectedItems) {
+    public void onSelectionChanged(SelectionChange<E> change) {
         setToolbarShadowVisibility();
         /*
-        if (!selectedItems.isEmpty()) {
+        if (change.getSelectedItemCount() > 0) {
             ((HistoryNavigationLayout) findViewById(R.id.list_content)).release();
         }
         */
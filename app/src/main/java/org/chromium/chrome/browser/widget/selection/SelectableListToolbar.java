@@ -48,13 +48,13 @@ import org.chromium.chrome.browser.util.ColorUtils;
 //import org.chromium.chrome.browser.vr.VrModeObserver;
 //import org.chromium.chrome.browser.vr.VrModuleProvider;
 import org.chromium.chrome.browser.widget.NumberRollView;
-import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionObserver;
+import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionChange;
+import org.chromium.chrome.browser.widget.selection.SelectionDelegate.SelectionChangeObserver;
 import org.chromium.ui.KeyboardVisibilityDelegate;
 import org.chromium.ui.UiUtils;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.List;
 
 /**
  * A toolbar that changes its view depending on whether a selection is established. The toolbar
@@ -64,7 +64,8 @@ import java.util.List;
  * @param <E> The type of the selectable items this toolbar interacts with.
  */
 public class SelectableListToolbar<E>
-        extends Toolbar implements SelectionObserver<E>, OnClickListener, OnEditorActionListener,
+        extends Toolbar implements SelectionChangeObserver<E>, OnClickListener,
+                                   OnEditorActionListener,
                                    DisplayStyleObserver /*, VrModeObserver */ {
     /**
      * A delegate that handles searching the list of selectable items associated with this toolbar.
@@ -160,7 +161,7 @@ public class SelectableListToolbar<E>
     @CallSuper
     public void destroy() {
         mIsDestroyed = true;
-        if (mSelectionDelegate != null) mSelectionDelegate.removeObserver(this);
+        if (mSelectionDelegate != null) mSelectionDelegate.removeChangeObserver(this);
         hideKeyboard();
         // Not needed for Android Studio project.
         // VrModuleProvider.unregisterVrModeObserver(this);
@@ -191,7 +192,7 @@ public class SelectableListToolbar<E>
         mUpdateStatusBarColor = false;
 
         mSelectionDelegate = delegate;
-        mSelectionDelegate.addObserver(this);
+        mSelectionDelegate.addChangeObserver(this);
 
         mModernNavButtonStartOffsetPx = getResources().getDimensionPixelSize(
                 R.dimen.selectable_list_toolbar_nav_button_start_offset);
@@ -320,18 +321,19 @@ public class SelectableListToolbar<E>
 
     @Override
     @CallSuper
-    public void onSelectionStateChange(List<E> selectedItems) {
+    public void onSelectionChanged(SelectionChange<E> change) {
+        int selectedCount = change.getSelectedItemCount();
         boolean wasSelectionEnabled = mIsSelectionEnabled;
         mIsSelectionEnabled = mSelectionDelegate.isSelectionEnabled();
 
-        // If onSelectionStateChange() gets called before onFinishInflate(), mNumberRollView
+        // If onSelectionChanged() gets called before onFinishInflate(), mNumberRollView
         // will be uninitialized. See crbug.com/637948.
         if (mNumberRollView == null) {
             mNumberRollView = (NumberRollView) findViewById(R.id.selection_mode_number);
         }
 
         if (mIsSelectionEnabled) {
-            showSelectionView(selectedItems, wasSelectionEnabled);
+            showSelectionView(selectedCount, wasSelectionEnabled);
         } else if (mIsSearching) {
             showSearchViewInternal();
         } else {
@@ -343,7 +345,7 @@ public class SelectableListToolbar<E>
             int resId = wasSelectionEnabled ? R.string.accessibility_toolbar_multi_select
                                             : R.string.accessibility_toolbar_screen_position;
             announceForAccessibility(
-                    getContext().getString(resId, Integer.toString(selectedItems.size())));
+                    getContext().getString(resId, Integer.toString(selectedCount)));
         }
     }
 
@@ -568,19 +570,19 @@ public class SelectableListToolbar<E>
         updateDisplayStyleIfNecessary();
     }
 
-    protected void showSelectionView(List<E> selectedItems, boolean wasSelectionEnabled) {
+    protected void showSelectionView(int selectedCount, boolean wasSelectionEnabled) {
         mViewType = ViewType.SELECTION_VIEW;
 
         getMenu().setGroupVisible(mNormalGroupResId, false);
         getMenu().setGroupVisible(mSelectedGroupResId, true);
-        getMenu().setGroupEnabled(mSelectedGroupResId, !selectedItems.isEmpty());
+        getMenu().setGroupEnabled(mSelectedGroupResId, selectedCount > 0);
         if (mHasSearchView) mSearchView.setVisibility(View.GONE);
 
         setNavigationButton(NAVIGATION_BUTTON_SELECTION_BACK);
         setBackgroundColor(mSelectionBackgroundColor);
         setOverflowIcon(mSelectionMenuButton);
 
-        switchToNumberRollView(selectedItems, wasSelectionEnabled);
+        switchToNumberRollView(selectedCount, wasSelectionEnabled);
 
         if (mIsSearching) hideKeyboard();
 
@@ -611,11 +613,11 @@ public class SelectableListToolbar<E>
         }
     }
 
-    protected void switchToNumberRollView(List<E> selectedItems, boolean wasSelectionEnabled) {
+    protected void switchToNumberRollView(int selectedCount, boolean wasSelectionEnabled) {
         setTitle(null);
         mNumberRollView.setVisibility(View.VISIBLE);
         if (!wasSelectionEnabled) mNumberRollView.setNumber(0, false);
-        mNumberRollView.setNumber(selectedItems.size(), true);
+        mNumberRollView.setNumber(selectedCount, true);
     }
 
     private void updateDisplayStyleIfNecessary() {
@@ -6,13 +6,27 @@ package org.chromium.chrome.browser.widget.selection;
 
 import org.chromium.base.ObserverList;
 
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A generic delegate used to keep track of selected items.
+ *
+ * By default the selected items are kept in a set. For long lists, an {@link ItemIndexer} can be
+ * provided instead (see {@link #setItemIndexer}), in which case the selection is kept as a bit
+ * per item: toggling an item is O(1), selecting all items (see {@link #selectAll}) or none is
+ * proportional to the number of items divided by 64, and the number of selected items is counted
+ * as it changes. Either way, observers are handed a read-only view of the selection rather than
+ * a copy of it. {@link SelectionChangeObserver}s are told what changed instead: the number of
+ * selected items, and (only when they ask for them) the items added and removed.
  * @param <E> The type of the selectable items this delegate interacts with.
  */
 public class SelectionDelegate<E> {
@@ -31,13 +45,250 @@ public class SelectionDelegate<E> {
         /**
          * Called when the set of selected items has changed.
          * @param selectedItems The list of currently selected items. An empty list indicates there
-         *                      is no selection.
+         *                      is no selection. This is a read-only view of the selection, only
+         *                      valid during the call (copy it to keep it).
          */
         void onSelectionStateChange(List<E> selectedItems);
     }
 
+    /**
+     * Maps the selectable items to dense indices (from 0 up to getIndexCount() - 1), so that the
+     * selection can be kept as a bit set.
+     * @param <E> The type of the selectable items this delegate interacts with.
+     */
+    public interface ItemIndexer<E> {
+        /** @return The number of items (one more than the highest index). */
+        int getIndexCount();
+
+        /**
+         * @param item The item to look up.
+         * @return The index of the item, or -1 if it is not one of the items.
+         */
+        int getIndexOf(E item);
+
+        /**
+         * @param index The index to look up.
+         * @return The item at the index.
+         */
+        E getItemAt(int index);
+    }
+
+    /**
+     * Describes a change to the selection, for {@link SelectionChangeObserver}s. Only valid
+     * during the call to {@link SelectionChangeObserver#onSelectionChanged}.
+     * @param <E> The type of the selectable items this delegate interacts with.
+     */
+    public interface SelectionChange<E> {
+        /** @return The number of items selected after the change. */
+        int getSelectedItemCount();
+
+        /** @return The number of items selected before the change. */
+        int getPreviousSelectedItemCount();
+
+        /**
+         * @return The items added to the selection. Worked out the first time it is asked for
+         *         (once per change, however many observers ask), so observers that only need the
+         *         count don't pay for it.
+         */
+        List<E> getAddedItems();
+
+        /** @return The items removed from the selection. Worked out as for getAddedItems(). */
+        List<E> getRemovedItems();
+    }
+
+    /**
+     * Observer interface to be notified of changes to the selection, without being handed the
+     * whole selection each time.
+     * @param <E> The type of the selectable items this delegate interacts with.
+     */
+    public interface SelectionChangeObserver<E> {
+        /**
+         * Called when the set of selected items (or whether selection is enabled) has changed.
+         * @param change Describes the change.
+         */
+        void onSelectionChanged(SelectionChange<E> change);
+    }
+
+    /**
+     * The change being reported to the observers. Changes to a single item are described by
+     * that item. For larger changes, the selection from before the change is kept (only when
+     * there are observers to ask about it), and the items added and removed are worked out
+     * from it if asked for.
+     */
+    private class Change implements SelectionChange<E> {
+        private int mPreviousCount;
+
+        // The item selected or deselected (null for larger changes, or when no items changed).
+        private E mToggledItem;
+        private boolean mToggledOn;
+
+        // Whether the change is a larger one (see mPreviousIndices and mPreviousItems).
+        private boolean mBulk;
+
+        // The items added and removed, once worked out (null until then).
+        private List<E> mAdded;
+        private List<E> mRemoved;
+
+        void reset(boolean bulk, E toggledItem, boolean toggledOn) {
+            mPreviousCount = getSelectedItemCount();
+            mBulk = bulk;
+            mToggledItem = toggledItem;
+            mToggledOn = toggledOn;
+            mAdded = null;
+            mRemoved = null;
+        }
+
+        @Override
+        public int getSelectedItemCount() {
+            return SelectionDelegate.this.getSelectedItemCount();
+        }
+
+        @Override
+        public int getPreviousSelectedItemCount() {
+            return mPreviousCount;
+        }
+
+        @Override
+        public List<E> getAddedItems() {
+            if (mAdded == null) mAdded = diff(true);
+            return mAdded;
+        }
+
+        @Override
+        public List<E> getRemovedItems() {
+            if (mRemoved == null) mRemoved = diff(false);
+            return mRemoved;
+        }
+
+        /**
+         * @param added Whether to list the items added (or removed).
+         * @return The items added to (or removed from) the selection.
+         */
+        private List<E> diff(boolean added) {
+            if (!mBulk) {
+                return mToggledItem != null && mToggledOn == added
+                        ? Collections.singletonList(mToggledItem)
+                        : Collections.<E>emptyList();
+            }
+            List<E> items = new ArrayList<>();
+            if (mIndexer != null) {
+                BitSet diff = (BitSet) (added ? mSelectedIndices : mPreviousIndices).clone();
+                diff.andNot(added ? mPreviousIndices : mSelectedIndices);
+                for (int i = diff.nextSetBit(0); i >= 0; i = diff.nextSetBit(i + 1)) {
+                    items.add(mIndexer.getItemAt(i));
+                }
+            } else {
+                Set<E> from = added ? mSelectedItems : mPreviousItems;
+                Set<E> without = added ? mPreviousItems : mSelectedItems;
+                for (E item : from) {
+                    if (!without.contains(item)) items.add(item);
+                }
+            }
+            return Collections.unmodifiableList(items);
+        }
+    }
+
     private Set<E> mSelectedItems = new HashSet<>();
     private ObserverList<SelectionObserver<E>> mObservers = new ObserverList<>();
+    private ObserverList<SelectionChangeObserver<E>> mChangeObservers = new ObserverList<>();
+
+    // The change being reported to mChangeObservers.
+    private final Change mChange = new Change();
+
+    // The selection from before the last larger change (see Change), as indices or as items.
+    private final BitSet mPreviousIndices = new BitSet();
+    private Set<E> mPreviousItems = Collections.emptySet();
+
+    // When set, the selection is kept in mSelectedIndices (and mSelectedItems is not used).
+    private ItemIndexer<E> mIndexer;
+
+    // The indices of the selected items (see ItemIndexer), and how many there are.
+    private final BitSet mSelectedIndices = new BitSet();
+    private int mSelectedIndexCount;
+
+    // The read-only view of the selection handed to observers.
+    private final SelectedItemsList mSelectedItemsList = new SelectedItemsList();
+
+    /**
+     * A read-only view of the selected items as a list. Answers size() and contains() without
+     * copying anything, and copies the selection into a list the first time the items are asked
+     * for (after a change).
+     */
+    private class SelectedItemsList extends AbstractList<E> {
+        // The selected items, copied out when first needed (null until then).
+        private List<E> mItems;
+
+        void invalidate() {
+            mItems = null;
+        }
+
+        @Override
+        public int size() {
+            return getSelectedItemCount();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object item) {
+            return isItemSelected((E) item);
+        }
+
+        @Override
+        public E get(int index) {
+            if (mItems == null) mItems = getSelectedItemsAsList();
+            return mItems.get(index);
+        }
+    }
+
+    /**
+     * A read-only view of the selected items as a set, when kept as a bit set.
+     */
+    private class SelectedIndicesSet extends AbstractSet<E> {
+        @Override
+        public int size() {
+            return mSelectedIndexCount;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object item) {
+            return isItemSelected((E) item);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                private int mNext = mSelectedIndices.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return mNext >= 0;
+                }
+
+                @Override
+                public E next() {
+                    if (mNext < 0) throw new NoSuchElementException();
+                    E item = mIndexer.getItemAt(mNext);
+                    mNext = mSelectedIndices.nextSetBit(mNext + 1);
+                    return item;
+                }
+            };
+        }
+    }
+
+    private final SelectedIndicesSet mSelectedIndicesSet = new SelectedIndicesSet();
+
+    /**
+     * Keeps the selection as a bit set, indexed by |indexer|. Must be called before any items
+     * are selected. The selection is kept by index, so when the items change, the indexer must
+     * keep the indices of the items in the selection the same (or the selection must be set
+     * again, see {@link #setSelectedItems}).
+     * @param indexer The indexer mapping the items to indices.
+     */
+    public void setItemIndexer(ItemIndexer<E> indexer) {
+        assert mSelectedItems.isEmpty() && mSelectedIndexCount == 0;
+        mIndexer = indexer;
+    }
 
     /**
      * Sets the mode of this SelectionDelegate to single-selection.
@@ -51,6 +302,7 @@ public class SelectionDelegate<E> {
      * @param enable True, for entering selection mode. False, to turn-off this mode.
      */
     public void setSelectionModeEnabledForZeroItems(boolean enable) {
+        mChange.reset(false, null, false);
         mEnableSelectionForZeroItems = enable;
         notifyObservers();
     }
@@ -61,7 +313,27 @@ public class SelectionDelegate<E> {
      * @return Whether the item is selected.
      */
     public boolean toggleSelectionForItem(E item) {
-        if (mSelectedItems.contains(item)) {
+        if (mIndexer != null) {
+            int index = mIndexer.getIndexOf(item);
+            if (index < 0) return false;
+            boolean selected = mSelectedIndices.get(index);
+            beginToggle(item, !selected);
+            if (selected) {
+                mSelectedIndices.clear(index);
+                mSelectedIndexCount--;
+            } else {
+                if (mIsSingleSelection) clearSelectedIndices();
+                mSelectedIndices.set(index);
+                mSelectedIndexCount++;
+            }
+            if (mSelectedIndexCount == 0) mEnableSelectionForZeroItems = false;
+            notifyObservers();
+            return isItemSelected(item);
+        }
+
+        boolean selected = mSelectedItems.contains(item);
+        beginToggle(item, !selected);
+        if (selected) {
             mSelectedItems.remove(item);
         } else {
             if (mIsSingleSelection) mSelectedItems.clear();
@@ -80,7 +352,32 @@ public class SelectionDelegate<E> {
      * @param items The items to set as selected.
      */
     public void setSelectedItems(Set<E> items) {
-        mSelectedItems = items;
+        beginBulkChange();
+        if (mIndexer != null) {
+            clearSelectedIndices();
+            for (E item : items) {
+                int index = mIndexer.getIndexOf(item);
+                if (index < 0 || mSelectedIndices.get(index)) continue;
+                mSelectedIndices.set(index);
+                mSelectedIndexCount++;
+            }
+        } else {
+            mSelectedItems = items;
+        }
+        notifyObservers();
+    }
+
+    /**
+     * Selects all items. Only supported when the selection is kept as a bit set (see
+     * {@link #setItemIndexer}).
+     */
+    public void selectAll() {
+        assert mIndexer != null;
+        int count = mIndexer.getIndexCount();
+        beginBulkChange();
+        mSelectedIndices.clear();
+        mSelectedIndices.set(0, count);
+        mSelectedIndexCount = count;
         notifyObservers();
     }
 
@@ -90,6 +387,10 @@ public class SelectionDelegate<E> {
      * @return Whether the item is selected.
      */
     public boolean isItemSelected(E item) {
+        if (mIndexer != null) {
+            int index = mIndexer.getIndexOf(item);
+            return index >= 0 && mSelectedIndices.get(index);
+        }
         return mSelectedItems.contains(item);
     }
 
@@ -97,30 +398,40 @@ public class SelectionDelegate<E> {
      * @return Whether any items are selected.
      */
     public boolean isSelectionEnabled() {
-        return !mSelectedItems.isEmpty() || mEnableSelectionForZeroItems;
+        return getSelectedItemCount() > 0 || mEnableSelectionForZeroItems;
+    }
+
+    /**
+     * @return The number of selected items.
+     */
+    public int getSelectedItemCount() {
+        return mIndexer != null ? mSelectedIndexCount : mSelectedItems.size();
     }
 
    /**
     * Clears all selected items.
     */
     public void clearSelection() {
+        beginBulkChange();
         mEnableSelectionForZeroItems = false;
         mSelectedItems.clear();
+        clearSelectedIndices();
         notifyObservers();
     }
 
     /**
-     * @return The set of selected items.
+     * @return The set of selected items. When the selection is kept as a bit set, this is a
+     *         read-only view of it (which changes along with the selection).
      */
     public Set<E> getSelectedItems() {
-        return mSelectedItems;
+        return mIndexer != null ? mSelectedIndicesSet : mSelectedItems;
     }
 
     /**
      * @return The list of selected items.
      */
     public List<E> getSelectedItemsAsList() {
-        return new ArrayList<E>(mSelectedItems);
+        return new ArrayList<E>(getSelectedItems());
     }
 
     /**
@@ -139,10 +450,63 @@ public class SelectionDelegate<E> {
         mObservers.removeObserver(observer);
     }
 
+    /**
+     * Adds a SelectionChangeObserver to be notified of selection changes.
+     * @param observer The SelectionChangeObserver to add.
+     */
+    public void addChangeObserver(SelectionChangeObserver<E> observer) {
+        mChangeObservers.addObserver(observer);
+    }
+
+    /**
+     * Removes a SelectionChangeObserver.
+     * @param observer The SelectionChangeObserver to remove.
+     */
+    public void removeChangeObserver(SelectionChangeObserver<E> observer) {
+        mChangeObservers.removeObserver(observer);
+    }
+
+    /**
+     * Starts a change to the selection of a single item.
+     * @param item The item.
+     * @param selected Whether the item is being selected (or deselected).
+     */
+    private void beginToggle(E item, boolean selected) {
+        // Selecting an item in single selection mode may also deselect another.
+        if (selected && mIsSingleSelection && getSelectedItemCount() > 0) {
+            beginBulkChange();
+        } else {
+            mChange.reset(false, item, selected);
+        }
+    }
+
+    /**
+     * Starts a change to the selection of any number of items, keeping the selection from before
+     * the change to work out what changed (should an observer ask).
+     */
+    private void beginBulkChange() {
+        mChange.reset(true, null, false);
+        if (mChangeObservers.isEmpty()) return;
+        if (mIndexer != null) {
+            mPreviousIndices.clear();
+            mPreviousIndices.or(mSelectedIndices);
+        } else {
+            mPreviousItems = new HashSet<>(mSelectedItems);
+        }
+    }
+
+    private void clearSelectedIndices() {
+        mSelectedIndices.clear();
+        mSelectedIndexCount = 0;
+    }
+
     private void notifyObservers() {
-        List<E> selectedItems = getSelectedItemsAsList();
+        mSelectedItemsList.invalidate();
         for (SelectionObserver<E> observer : mObservers) {
-            observer.onSelectionStateChange(selectedItems);
+            observer.onSelectionStateChange(mSelectedItemsList);
+        }
+        for (SelectionChangeObserver<E> observer : mChangeObservers) {
+            observer.onSelectionChanged(mChange);
         }
     }
 }
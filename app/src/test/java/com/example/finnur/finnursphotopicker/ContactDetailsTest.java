@@ -0,0 +1,81 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the {@link ContactDetails} class.
+ */
+public class ContactDetailsTest {
+    private static String abbreviate(String displayName) {
+        return new ContactDetails(1, displayName, null, null).getDisplayNameAbbreviation();
+    }
+
+    @Test
+    public void testDisplayNameAbbreviation() {
+        assertEquals("", abbreviate(""));
+        assertEquals("A", abbreviate("Anna"));
+        assertEquals("AS", abbreviate("Anna Smith"));
+        assertEquals("AJ", abbreviate("Anna Maria Jonsdottir"));
+        assertEquals("AS", abbreviate("Anna  Smith"));
+        assertEquals("A", abbreviate("Anna   "));
+        assertEquals("AB", abbreviate("Anna B "));
+        assertEquals(" A", abbreviate(" Anna"));
+        assertEquals(" ", abbreviate("   "));
+    }
+
+    @Test
+    public void testAbbreviatedContactDetails() {
+        ContactDetails contact = new ContactDetails(1, "Anna",
+                Arrays.asList("anna@example.com", "anna@example.org", "anna@example.net"),
+                Arrays.asList("555-1234"));
+
+        ContactDetails.AbbreviatedContactDetails details =
+                contact.getAbbreviatedContactDetails(true, true, null);
+        assertEquals("anna@example.com", details.primaryEmail);
+        assertEquals("(+ 2 more)", details.overflowEmailCount);
+        assertEquals("555-1234", details.primaryTelephoneNumber);
+        assertEquals("", details.overflowTelephoneNumberCount);
+
+        // Worked out once, and then handed out as is.
+        assertSame(details, contact.getAbbreviatedContactDetails(true, true, null));
+        assertSame(contact.getDisplayNameAbbreviation(), contact.getDisplayNameAbbreviation());
+
+        // Until asked for with different details.
+        ContactDetails.AbbreviatedContactDetails emailsOnly =
+                contact.getAbbreviatedContactDetails(true, false, null);
+        assertNotSame(details, emailsOnly);
+        assertEquals("anna@example.com", emailsOnly.primaryEmail);
+        assertEquals("", emailsOnly.primaryTelephoneNumber);
+    }
+
+    @Test
+    public void testCompareTo() {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>();
+        contacts.add(new ContactDetails(1, "Bjorn", null, null));
+        contacts.add(new ContactDetails(2, "\u00c1sta", null, null));
+        contacts.add(new ContactDetails(3, "anna", null, null));
+        contacts.add(new ContactDetails(5, "Carl", null, null));
+        contacts.add(new ContactDetails(4, "Carl", null, null));
+        contacts.add(new ContactDetails(6, "Zoe", null, null));
+        Collections.sort(contacts);
+
+        // Ascending, ignoring case and accents (unlike String.compareTo, which would put "anna"
+        // after "Zoe" and "\u00c1sta" last), and by id for contacts with the same name.
+        long[] ids = new long[contacts.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = contacts.get(i).getId();
+        assertEquals("[3, 2, 1, 4, 5, 6]", Arrays.toString(ids));
+        assertEquals(0, contacts.get(0).compareTo(new ContactDetails(3, "anna", null, null)));
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ContactsPickerMetrics} class.
+ */
+public class ContactsPickerMetricsTest {
+    @Test
+    public void testContactCountTiers() {
+        assertEquals(".Under100", ContactsPickerMetrics.getContactCountTier(0));
+        assertEquals(".Under100", ContactsPickerMetrics.getContactCountTier(99));
+        assertEquals(".Under1000", ContactsPickerMetrics.getContactCountTier(100));
+        assertEquals(".Under1000", ContactsPickerMetrics.getContactCountTier(999));
+        assertEquals(".Under5000", ContactsPickerMetrics.getContactCountTier(1000));
+        assertEquals(".Under5000", ContactsPickerMetrics.getContactCountTier(4999));
+        assertEquals(".5000OrMore", ContactsPickerMetrics.getContactCountTier(5000));
+        assertEquals(".5000OrMore", ContactsPickerMetrics.getContactCountTier(100000));
+    }
+
+    @Test
+    public void testTracksContactCount() {
+        ContactsPickerMetrics metrics = new ContactsPickerMetrics();
+        assertEquals(".Under100", metrics.getContactCountTier());
+
+        // The tier follows the contacts as they stream in.
+        metrics.setContactCount(250);
+        assertEquals(".Under1000", metrics.getContactCountTier());
+        metrics.setContactCount(12000);
+        assertEquals(".5000OrMore", metrics.getContactCountTier());
+    }
+}
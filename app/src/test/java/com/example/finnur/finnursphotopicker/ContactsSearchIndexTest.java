@@ -0,0 +1,107 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests for the {@link ContactsSearchIndex} class.
+ */
+public class ContactsSearchIndexTest {
+    private static List<ContactDetails> createContacts() {
+        List<ContactDetails> contacts = new ArrayList<>();
+        contacts.add(new ContactDetails(1, "Alice Anderson",
+                Arrays.asList("alice@example.com", "aa@work.example"), Arrays.asList("555-1234")));
+        contacts.add(new ContactDetails(2, "Bob Barker", null, Arrays.asList("555-9876")));
+        contacts.add(new ContactDetails(3, "Carol Andrews", Arrays.asList("CAROL@EXAMPLE.COM"),
+                null));
+        contacts.add(new ContactDetails(4, "Dave", null, null));
+        return contacts;
+    }
+
+    @Test
+    public void testSearch() {
+        ContactsSearchIndex index = ContactsSearchIndex.build(createContacts(), Locale.US);
+        assertEquals(4, index.getContactCount());
+
+        // Names are matched case-insensitively, anywhere in the string.
+        assertArrayEquals(new int[] {0, 2}, index.search("and", false, false));
+        assertArrayEquals(new int[] {0, 2}, index.search("AND", false, false));
+        assertArrayEquals(new int[] {3}, index.search("v", false, false));
+        assertArrayEquals(new int[] {}, index.search("xyz", false, false));
+
+        // Emails and telephone numbers are only matched when asked for.
+        assertArrayEquals(new int[] {}, index.search("example", false, false));
+        assertArrayEquals(new int[] {0, 2}, index.search("example", true, false));
+        assertArrayEquals(new int[] {}, index.search("555", true, false));
+        assertArrayEquals(new int[] {0, 1}, index.search("555", false, true));
+        assertArrayEquals(new int[] {0}, index.search("work", true, true));
+    }
+
+    @Test
+    public void testNarrowingMatchesFullSearch() {
+        // Type out (and back) queries with the same index, and check each result against a fresh
+        // index, so that results carried over from earlier queries can not go unnoticed.
+        List<ContactDetails> contacts = createContacts();
+        ContactsSearchIndex index = ContactsSearchIndex.build(contacts, Locale.US);
+        String[] queries = {"a", "an", "and", "andr", "and", "an", "5", "55", "555-", "555-1"};
+        for (String query : queries) {
+            for (int fields = 0; fields < 4; fields++) {
+                boolean emails = (fields & 1) != 0;
+                boolean telephones = (fields & 2) != 0;
+                int[] expected = ContactsSearchIndex.build(contacts, Locale.US)
+                                         .search(query, emails, telephones);
+                assertArrayEquals(query, expected, index.search(query, emails, telephones));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(1234);
+        String alphabet = "abcde ";
+        List<ContactDetails> contacts = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            contacts.add(new ContactDetails(i, randomString(random, alphabet, 12),
+                    Arrays.asList(randomString(random, alphabet, 8)),
+                    Arrays.asList(randomString(random, "0123", 6))));
+        }
+        ContactsSearchIndex index = ContactsSearchIndex.build(contacts, Locale.US);
+
+        for (int i = 0; i < 200; i++) {
+            String query = randomString(random, alphabet + "0123", 1 + random.nextInt(4));
+            List<Integer> expected = new ArrayList<>();
+            for (int c = 0; c < contacts.size(); c++) {
+                ContactDetails contact = contacts.get(c);
+                if (contact.getDisplayName().contains(query)
+                        || contact.getContactDetailsAsString(true, true).contains(query)) {
+                    expected.add(c);
+                }
+            }
+            int[] actual = index.search(query, true, true);
+            assertEquals(query, expected.size(), actual.length);
+            for (int j = 0; j < actual.length; j++) {
+                assertEquals(query, (int) expected.get(j), actual[j]);
+            }
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
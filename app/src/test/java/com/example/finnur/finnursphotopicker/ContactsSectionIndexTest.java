@@ -0,0 +1,136 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the {@link ContactsSectionIndex} class.
+ */
+public class ContactsSectionIndexTest {
+    private static ContactDetails contact(String name) {
+        return new ContactDetails(0, name, null, null);
+    }
+
+    private static ArrayList<ContactDetails> contacts(String... names) {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>();
+        for (String name : names) contacts.add(contact(name));
+        return contacts;
+    }
+
+    /** @return The sections of |index|, as "label@position" strings. */
+    private static String sections(ContactsSectionIndex index) {
+        StringBuilder sections = new StringBuilder();
+        for (int i = 0; i < index.getSectionCount(); i++) {
+            if (i > 0) sections.append(' ');
+            sections.append(index.getSectionLabel(i)).append('@').append(
+                    index.getPositionForSection(i));
+        }
+        return sections.toString();
+    }
+
+    /** @return The sections of |contacts|, worked out the slow way. */
+    private static String expectedSections(List<ContactDetails> contacts) {
+        ContactsSectionIndex index = new ContactsSectionIndex();
+        index.reset(contacts);
+        return sections(index);
+    }
+
+    @Test
+    public void testSectionLabel() {
+        assertEquals('A', ContactsSectionIndex.getSectionLabel("Anna"));
+        assertEquals('A', ContactsSectionIndex.getSectionLabel("anna"));
+        assertEquals('A', ContactsSectionIndex.getSectionLabel("\u00c1sta"));
+        assertEquals('E', ContactsSectionIndex.getSectionLabel("\u00e9lise"));
+        assertEquals(ContactsSectionIndex.OTHER, ContactsSectionIndex.getSectionLabel("42"));
+        assertEquals(ContactsSectionIndex.OTHER, ContactsSectionIndex.getSectionLabel(""));
+        assertEquals(ContactsSectionIndex.OTHER, ContactsSectionIndex.getSectionLabel(null));
+    }
+
+    @Test
+    public void testAppend() {
+        ContactsSectionIndex index = new ContactsSectionIndex();
+        index.reset(contacts("1st", "Anna", "\u00c1sta"));
+        assertEquals("#@0 A@1", sections(index));
+
+        // Streamed in chunks, which may continue a section.
+        index.append(contacts("Axel", "Bjorn", "bo"));
+        index.append(contacts("Carl"));
+        assertEquals("#@0 A@1 B@4 C@6", sections(index));
+
+        assertEquals(0, index.getSectionForPosition(0));
+        assertEquals(1, index.getSectionForPosition(3));
+        assertEquals(2, index.getSectionForPosition(4));
+        assertEquals(3, index.getSectionForPosition(6));
+    }
+
+    @Test
+    public void testUpdate() {
+        ContactsSectionIndex index = new ContactsSectionIndex();
+        index.reset(contacts("Anna", "Bjorn", "Carl", "Dagny"));
+
+        // Bjorn is renamed Robert (and moves) and Dagny is deleted. Ali, Beth and Eve are added.
+        index.update(new int[] {1, 3}, new int[] {0, 2, 4, 5},
+                contacts("Ali", "Anna", "Beth", "Carl", "Eve", "Robert"));
+        assertEquals("A@0 B@2 C@3 E@4 R@5", sections(index));
+
+        // Removing a section can join two runs of the same section.
+        index.update(new int[] {2}, new int[] {}, contacts("Ali", "Anna", "Carl", "Eve", "Robert"));
+        assertEquals("A@0 C@2 E@3 R@4", sections(index));
+        index.update(new int[] {0, 1, 2, 3, 4}, new int[] {}, contacts());
+        assertEquals("", sections(index));
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        String[] names = {"1st", "Anna", "Bjorn", "Carl", "Dagny", "Erik"};
+        Random random = new Random(42);
+        ArrayList<ContactDetails> list = new ArrayList<ContactDetails>();
+        ContactsSectionIndex index = new ContactsSectionIndex();
+        index.reset(list);
+
+        // The list doesn't need to be sorted for the index to keep track of it.
+        for (int round = 0; round < 500; round++) {
+            ArrayList<ContactDetails> kept = new ArrayList<ContactDetails>();
+            ArrayList<Integer> removed = new ArrayList<Integer>();
+            for (int i = 0; i < list.size(); i++) {
+                if (random.nextInt(4) == 0) {
+                    removed.add(i);
+                } else {
+                    kept.add(list.get(i));
+                }
+            }
+            ArrayList<ContactDetails> updated = new ArrayList<ContactDetails>(kept);
+            ArrayList<Boolean> isNew = new ArrayList<Boolean>();
+            for (int i = 0; i < kept.size(); i++) isNew.add(false);
+            int insertCount = random.nextInt(6);
+            for (int i = 0; i < insertCount; i++) {
+                int position = random.nextInt(updated.size() + 1);
+                updated.add(position, contact(names[random.nextInt(names.length)]));
+                isNew.add(position, true);
+            }
+            ArrayList<Integer> inserted = new ArrayList<Integer>();
+            for (int i = 0; i < updated.size(); i++) {
+                if (isNew.get(i)) inserted.add(i);
+            }
+
+            index.update(toArray(removed), toArray(inserted), updated);
+            list = updated;
+            assertEquals(expectedSections(list), sections(index));
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the {@link ContactsSnapshot} class.
+ */
+public class ContactsSnapshotTest {
+    private static ArrayList<ContactDetails> createContacts() {
+        ArrayList<ContactDetails> contacts = new ArrayList<ContactDetails>();
+        contacts.add(new ContactDetails(7, "Alice",
+                Arrays.asList("alice@example.com", "alice@example.org"),
+                Arrays.asList("555-1234")));
+        contacts.add(new ContactDetails(
+                3, "Bj\u00f8rn", null, Arrays.asList("555-0000", "555-9999")));
+        contacts.add(new ContactDetails(12, "", Arrays.asList("nameless@example.com"), null));
+        contacts.add(new ContactDetails(5, "Dave", null, null));
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        builder.beginContact(9, "\u6f22\u5b57", "Kanji");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        contacts.addAll(builder.build().createContacts());
+        return contacts;
+    }
+
+    private static void assertSameContacts(
+            ArrayList<ContactDetails> expected, ArrayList<ContactDetails> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getDisplayName(), actual.get(i).getDisplayName());
+            assertEquals(expected.get(i).getSortKey(), actual.get(i).getSortKey());
+            assertEquals(expected.get(i).getEmails(), actual.get(i).getEmails());
+            assertEquals(expected.get(i).getPhoneNumbers(), actual.get(i).getPhoneNumbers());
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            ArrayList<ContactDetails> contacts = createContacts();
+            ContactsSnapshot.Stamp stamp =
+                    new ContactsSnapshot.Stamp(1234567890123L, 1234567000000L, 42, 1234567899999L);
+            ContactsSnapshot.write(file, contacts, stamp, /*includeNames=*/true,
+                    /*includeEmails=*/true, /*includeTel=*/true);
+
+            ContactsSnapshot snapshot = ContactsSnapshot.read(file, /*includeNames=*/true,
+                    /*includeEmails=*/true, /*includeTel=*/true);
+            assertSameContacts(contacts, snapshot.getContacts());
+            assertEquals(stamp, snapshot.getStamp());
+            assertEquals(stamp.mTakenAtMs, snapshot.getStamp().mTakenAtMs);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testWriteAndReadEmpty() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            ContactsSnapshot.write(file, Collections.<ContactDetails>emptyList(),
+                    new ContactsSnapshot.Stamp(0, 0, 0, 0), /*includeNames=*/false,
+                    /*includeEmails=*/true, /*includeTel=*/false);
+
+            ContactsSnapshot snapshot = ContactsSnapshot.read(file, /*includeNames=*/false,
+                    /*includeEmails=*/true, /*includeTel=*/false);
+            assertEquals(0, snapshot.getContacts().size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadWithDifferentDetails() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        try {
+            ContactsSnapshot.write(file, createContacts(), new ContactsSnapshot.Stamp(1, 2, 4, 3),
+                    /*includeNames=*/true, /*includeEmails=*/true, /*includeTel=*/true);
+
+            // A snapshot taken for a different set of details can't stand in for the contacts.
+            assertNull(ContactsSnapshot.read(file, /*includeNames=*/true, /*includeEmails=*/true,
+                    /*includeTel=*/false));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            ContactsSnapshot.write(file, createContacts(), new ContactsSnapshot.Stamp(1, 2, 4, 3),
+                    /*includeNames=*/true, /*includeEmails=*/true, /*includeTel=*/true);
+            temporaryFile.createNewFile();
+
+            ContactsSnapshot.delete(file);
+            assertFalse(file.exists());
+            assertFalse(temporaryFile.exists());
+            assertNull(ContactsSnapshot.read(file, /*includeNames=*/true, /*includeEmails=*/true,
+                    /*includeTel=*/true));
+        } finally {
+            file.delete();
+            temporaryFile.delete();
+        }
+    }
+}
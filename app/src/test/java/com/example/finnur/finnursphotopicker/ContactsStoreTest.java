@@ -0,0 +1,123 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the {@link ContactsStore} class.
+ */
+public class ContactsStoreTest {
+    @Test
+    public void testBuild() {
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        builder.beginContact(1, "Alice");
+        builder.addEmail("alice@example.com");
+        builder.addEmail("alice@example.org");
+        builder.endContact(/*keepWithoutDetails=*/false);
+        // Dropped: no details and names are not wanted.
+        builder.beginContact(2, "Bob");
+        builder.endContact(/*keepWithoutDetails=*/false);
+        builder.beginContact(3, "Carol");
+        builder.addPhoneNumber("555-1234");
+        builder.endContact(/*keepWithoutDetails=*/false);
+        assertEquals(2, builder.getCount());
+
+        ContactsStore store = builder.build();
+        assertEquals(0, builder.getCount());
+        assertEquals(2, store.getCount());
+
+        assertEquals(1, store.getId(0));
+        assertEquals("Alice", store.getDisplayName(0));
+        assertEquals(2, store.getEmailCount(0));
+        assertEquals("alice@example.org", store.getEmail(0, 1));
+        assertEquals(Arrays.asList("alice@example.com", "alice@example.org"), store.getEmails(0));
+        assertEquals(0, store.getPhoneNumberCount(0));
+        assertEquals(Collections.emptyList(), store.getPhoneNumbers(0));
+
+        assertEquals(3, store.getId(1));
+        assertEquals("Carol", store.getDisplayName(1));
+        assertEquals(0, store.getEmailCount(1));
+        assertEquals(Arrays.asList("555-1234"), store.getPhoneNumbers(1));
+    }
+
+    @Test
+    public void testBuildInChunks() {
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        for (int i = 0; i < 100; i++) {
+            builder.beginContact(i, "Contact " + i);
+            builder.addPhoneNumber(new String("555-0000"));
+            builder.endContact(/*keepWithoutDetails=*/true);
+        }
+        ContactsStore first = builder.build();
+
+        builder.beginContact(100, "Contact 100");
+        builder.addPhoneNumber(new String("555-0000"));
+        builder.endContact(/*keepWithoutDetails=*/true);
+        ContactsStore second = builder.build();
+
+        assertEquals(100, first.getCount());
+        assertEquals(1, second.getCount());
+        assertEquals(99, first.getId(99));
+        assertEquals("Contact 99", first.getDisplayName(99));
+        assertEquals(100, second.getId(0));
+
+        // Identical strings are shared, also across stores built by the same builder.
+        assertSame(first.getPhoneNumber(0, 0), first.getPhoneNumber(99, 0));
+        assertSame(first.getPhoneNumber(0, 0), second.getPhoneNumber(0, 0));
+    }
+
+    @Test
+    public void testForContact() {
+        ContactsStore store = ContactsStore.forContact(
+                7, "Dave", null, Arrays.asList("555-1111", "555-2222"));
+        assertEquals(1, store.getCount());
+        assertEquals(7, store.getId(0));
+        assertEquals("Dave", store.getDisplayName(0));
+        assertEquals(0, store.getEmailCount(0));
+        assertEquals(2, store.getPhoneNumberCount(0));
+        assertEquals("555-2222", store.getPhoneNumber(0, 1));
+    }
+
+    @Test
+    public void testSortKey() {
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        builder.beginContact(1, "\u6f22\u5b57", "kanji");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        builder.beginContact(2, "Bob");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        ContactsStore store = builder.build();
+
+        // Contacts are listed under the first letter of their sort key, like they are sorted.
+        assertEquals("kanji", store.getSortKey(0));
+        assertEquals('K', store.getSectionLabel(0));
+        assertEquals("Bob", store.getSortKey(1));
+        assertEquals('B', store.getSectionLabel(1));
+    }
+
+    @Test
+    public void testPrepareCollationKeys() {
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        builder.beginContact(1, "\u00c1sta");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        builder.beginContact(2, "anna");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        ContactsStore store = builder.build();
+
+        // Comparing works the same whether or not the keys were worked out ahead of time.
+        store.prepareCollationKeys();
+        store.prepareCollationKeys();
+        assertTrue(ContactsStore.compareSortKeys(store, 1, store, 0) < 0);
+        assertEquals(0, ContactsStore.compareSortKeys(
+                store, 1, ContactsStore.forContact(3, "Anna", null, null), 0));
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the {@link ContactsSyncEngine} class.
+ */
+public class ContactsSyncEngineTest {
+    private static ContactDetails contact(long id, String name) {
+        return new ContactDetails(id, name, Arrays.asList(name + "@example.com"), null);
+    }
+
+    private static ArrayList<ContactDetails> createContacts() {
+        return new ArrayList<ContactDetails>(Arrays.asList(contact(1, "Alice"), contact(2, "Bob"),
+                contact(3, "Carol"), contact(4, "Dave"), contact(5, "Eve")));
+    }
+
+    private static LongIntMap ids(long... ids) {
+        LongIntMap map = new LongIntMap(ids.length);
+        for (long id : ids) map.put(id, 0);
+        return map;
+    }
+
+    private static String names(List<ContactDetails> contacts) {
+        StringBuilder names = new StringBuilder();
+        for (ContactDetails contact : contacts) {
+            if (names.length() > 0) names.append(',');
+            names.append(contact.getDisplayName());
+        }
+        return names.toString();
+    }
+
+    private static ContactsSyncEngine.Delta applyChanges(
+            LongIntMap changedIds, List<ContactDetails> updated) {
+        return ContactsSyncEngine.applyChanges(
+                createContacts(), changedIds, updated, ContactsSyncEngine.createComparator());
+    }
+
+    @Test
+    public void testNoChanges() {
+        ContactsSyncEngine.Delta delta =
+                applyChanges(ids(), Collections.<ContactDetails>emptyList());
+        assertTrue(delta.isEmpty());
+        assertEquals("Alice,Bob,Carol,Dave,Eve", names(delta.getContacts()));
+    }
+
+    @Test
+    public void testDeleted() {
+        ContactsSyncEngine.Delta delta =
+                applyChanges(ids(1, 3, 4), Collections.<ContactDetails>emptyList());
+        assertEquals("Bob,Eve", names(delta.getContacts()));
+        assertArrayEquals(new int[] {0, 2, 3}, delta.getRemovedPositions());
+        assertArrayEquals(new int[] {}, delta.getInsertedPositions());
+    }
+
+    @Test
+    public void testAdded() {
+        ContactsSyncEngine.Delta delta =
+                applyChanges(ids(6, 7, 8), Arrays.asList(contact(7, "Aaron"), contact(6, "Bea"),
+                                                   contact(8, "Zoe")));
+        assertEquals("Aaron,Alice,Bea,Bob,Carol,Dave,Eve,Zoe", names(delta.getContacts()));
+        assertArrayEquals(new int[] {}, delta.getRemovedPositions());
+        assertArrayEquals(new int[] {0, 2, 7}, delta.getInsertedPositions());
+    }
+
+    @Test
+    public void testUpdated() {
+        // Bob was renamed (and moves), Carol changed in place and Dave lost his only email.
+        ContactsSyncEngine.Delta delta = applyChanges(
+                ids(2, 3, 4), Arrays.asList(contact(3, "Carol"), contact(2, "Robert")));
+        assertEquals("Alice,Carol,Eve,Robert", names(delta.getContacts()));
+        assertArrayEquals(new int[] {1, 2, 3}, delta.getRemovedPositions());
+        assertArrayEquals(new int[] {1, 3}, delta.getInsertedPositions());
+    }
+
+    @Test
+    public void testSameName() {
+        // Contacts with the same name are listed by id.
+        ContactsSyncEngine.Delta delta =
+                applyChanges(ids(0, 9), Arrays.asList(contact(0, "Carol"), contact(9, "Carol")));
+        List<ContactDetails> contacts = delta.getContacts();
+        assertEquals("Alice,Bob,Carol,Carol,Carol,Dave,Eve", names(contacts));
+        assertEquals(0, contacts.get(2).getId());
+        assertEquals(3, contacts.get(3).getId());
+        assertEquals(9, contacts.get(4).getId());
+        assertArrayEquals(new int[] {2, 4}, delta.getInsertedPositions());
+    }
+
+    @Test
+    public void testSortKey() {
+        // Contacts are listed by the provider's sort key (here a phonetic name), not by name.
+        ContactsStore.Builder builder = new ContactsStore.Builder();
+        builder.beginContact(6, "\u6f22\u5b57", "Bea");
+        builder.endContact(/*keepWithoutDetails=*/true);
+        builder.beginContact(7, "\u4eee\u540d", "Dan");
+        builder.endContact(/*keepWithoutDetails=*/true);
+
+        ContactsSyncEngine.Delta delta =
+                applyChanges(ids(6, 7), builder.build().createContacts());
+        List<ContactDetails> contacts = delta.getContacts();
+        assertEquals("Alice,\u6f22\u5b57,Bob,Carol,\u4eee\u540d,Dave,Eve", names(contacts));
+        assertArrayEquals(new int[] {1, 4}, delta.getInsertedPositions());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        // The provider's collation can disagree with the Collator, so the updated contacts may
+        // not be in the order the comparator expects. Then the contacts are fetched again in
+        // full (debug builds stop at the assert) instead of patched in the wrong place.
+        ContactsSyncEngine.Delta delta;
+        try {
+            delta = applyChanges(ids(6, 7), Arrays.asList(contact(6, "Dan"), contact(7, "Bea")));
+        } catch (AssertionError e) {
+            return;
+        }
+        assertNull(delta);
+    }
+}
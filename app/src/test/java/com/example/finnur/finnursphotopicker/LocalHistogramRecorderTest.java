@@ -0,0 +1,152 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.base.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LocalHistogramRecorder} class.
+ */
+public class LocalHistogramRecorderTest {
+    private static final int SAMPLE_MAX = Integer.MAX_VALUE;
+
+    private final LocalHistogramRecorder mRecorder = LocalHistogramRecorder.get();
+
+    private LocalHistogramRecorder.HistogramSnapshot snapshot(String name) {
+        for (LocalHistogramRecorder.HistogramSnapshot snapshot : mRecorder.snapshot()) {
+            if (snapshot.getName().equals(name)) return snapshot;
+        }
+        return null;
+    }
+
+    @Test
+    public void testExponentialRanges() {
+        // The buckets of UMA_HISTOGRAM_TIMES (1 ms to 10 s, in 50 buckets) in Chrome.
+        int[] expected = {0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 14, 17, 20, 24, 29, 34, 40, 48, 57,
+                68, 81, 96, 114, 135, 160, 190, 226, 268, 318, 378, 449, 533, 633, 752, 894, 1062,
+                1262, 1500, 1782, 2117, 2516, 2990, 3553, 4222, 5017, 5961, 7083, 8416, 10000,
+                SAMPLE_MAX};
+        assertArrayEquals(expected, LocalHistogramRecorder.getExponentialRanges(1, 10000, 50));
+    }
+
+    @Test
+    public void testLinearRanges() {
+        // The buckets of an enumerated histogram with a boundary of 101: one per value, plus
+        // the underflow and overflow buckets.
+        int[] ranges = LocalHistogramRecorder.getLinearRanges(1, 101, 102);
+        assertEquals(103, ranges.length);
+        for (int i = 0; i <= 101; i++) assertEquals(i, ranges[i]);
+        assertEquals(SAMPLE_MAX, ranges[102]);
+
+        assertArrayEquals(new int[] {0, 1, 2, SAMPLE_MAX},
+                LocalHistogramRecorder.getLinearRanges(1, 2, 3));
+    }
+
+    @Test
+    public void testInvalidArgumentsGetDummyHistogram() {
+        int[] dummy = {0, 1, 2, SAMPLE_MAX};
+        assertArrayEquals(dummy, LocalHistogramRecorder.getExponentialRanges(10, 5, 50));
+        assertArrayEquals(dummy, LocalHistogramRecorder.getExponentialRanges(1, 100, 2));
+        assertArrayEquals(dummy, LocalHistogramRecorder.getLinearRanges(7, 7, 10));
+
+        // A minimum below 1 is raised to 1, and there are no more buckets than samples.
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, SAMPLE_MAX},
+                LocalHistogramRecorder.getExponentialRanges(0, 4, 50));
+    }
+
+    @Test
+    public void testUnderflowAndOverflow() {
+        String name = "Test.LocalHistogramRecorder.Clamped";
+        mRecorder.recordCustomCountHistogram(name, 0, -5, 1, 100, 10);
+        mRecorder.recordCustomCountHistogram(name, 0, 0, 1, 100, 10);
+        mRecorder.recordCustomCountHistogram(name, 0, 100, 1, 100, 10);
+        mRecorder.recordCustomCountHistogram(name, 0, SAMPLE_MAX, 1, 100, 10);
+
+        LocalHistogramRecorder.HistogramSnapshot snapshot = snapshot(name);
+        assertNotNull(snapshot);
+        assertEquals(10, snapshot.getBucketCount());
+        assertEquals(2, snapshot.getCount(0));
+        assertEquals(2, snapshot.getCount(9));
+        assertEquals(100, snapshot.getBucketMin(9));
+        assertEquals(SAMPLE_MAX, snapshot.getBucketMax(9));
+        assertEquals(4, snapshot.getTotalCount());
+        // Samples are clamped to the range a histogram can hold before they are summed.
+        assertEquals(100L + SAMPLE_MAX - 1, snapshot.getSum());
+    }
+
+    @Test
+    public void testSparseSnapshot() {
+        String name = "Test.LocalHistogramRecorder.Sparse";
+        long key = 0;
+        for (int sample : new int[] {1000, -3, 7, 7, SAMPLE_MAX}) {
+            key = mRecorder.recordSparseHistogram(name, key, sample);
+        }
+
+        // One bucket per distinct sample, in ascending order.
+        LocalHistogramRecorder.HistogramSnapshot snapshot = snapshot(name);
+        assertEquals(4, snapshot.getBucketCount());
+        assertEquals(-3, snapshot.getBucketMin(0));
+        assertEquals(7, snapshot.getBucketMin(1));
+        assertEquals(2, snapshot.getCount(1));
+        assertEquals(1000, snapshot.getBucketMin(2));
+        assertEquals(SAMPLE_MAX, snapshot.getBucketMin(3));
+        assertEquals(SAMPLE_MAX, snapshot.getBucketMax(3));
+        assertEquals(5, snapshot.getTotalCount());
+        assertEquals(1011L + SAMPLE_MAX, snapshot.getSum());
+        assertEquals(2, mRecorder.getHistogramValueCountForTesting(name, 7));
+        assertEquals(0, mRecorder.getHistogramValueCountForTesting(name, 8));
+    }
+
+    @Test
+    public void testSparseOverflow() {
+        // Samples beyond the capacity of the table still count towards the total.
+        String name = "Test.LocalHistogramRecorder.SparseOverflow";
+        for (int sample = 0; sample < 600; sample++) {
+            mRecorder.recordSparseHistogram(name, 0, sample);
+        }
+        LocalHistogramRecorder.HistogramSnapshot snapshot = snapshot(name);
+        assertEquals(512, snapshot.getBucketCount());
+        assertEquals(600, snapshot.getTotalCount());
+        assertEquals(599 * 600 / 2, snapshot.getSum());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final String bucketedName = "Test.LocalHistogramRecorder.Concurrent";
+        final String sparseName = "Test.LocalHistogramRecorder.ConcurrentSparse";
+        final int threadCount = 8;
+        final int samplesPerThread = 20000;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                for (int sample = 0; sample < samplesPerThread; sample++) {
+                    mRecorder.recordCustomCountHistogram(
+                            bucketedName, 0, sample % 1000, 1, 1000, 50);
+                    mRecorder.recordSparseHistogram(sparseName, 0, sample % 300);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        int total = threadCount * samplesPerThread;
+        assertEquals(total, mRecorder.getHistogramTotalCountForTesting(bucketedName));
+        assertEquals(total, mRecorder.getHistogramTotalCountForTesting(sparseName));
+        assertEquals(threadCount * (samplesPerThread / 1000) * (999L * 1000 / 2),
+                snapshot(bucketedName).getSum());
+
+        LocalHistogramRecorder.HistogramSnapshot sparse = snapshot(sparseName);
+        assertEquals(300, sparse.getBucketCount());
+        for (int i = 0; i < 300; i++) {
+            int perThread = samplesPerThread / 300 + (i < samplesPerThread % 300 ? 1 : 0);
+            assertEquals(i, sparse.getBucketMin(i));
+            assertEquals(threadCount * perThread, sparse.getCount(i));
+        }
+    }
+}
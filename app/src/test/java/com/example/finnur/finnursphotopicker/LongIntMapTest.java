@@ -0,0 +1,77 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package com.example.finnur.contactspicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the {@link LongIntMap} class.
+ */
+public class LongIntMapTest {
+    @Test
+    public void testPutGetRemove() {
+        LongIntMap map = new LongIntMap();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(42, -1));
+        assertFalse(map.containsKey(42));
+
+        map.put(42, 1);
+        map.put(0, 2);
+        map.put(-7, 3);
+        assertEquals(3, map.size());
+        assertEquals(1, map.get(42, -1));
+        assertEquals(2, map.get(0, -1));
+        assertEquals(3, map.get(-7, -1));
+
+        // Replacing a value does not change the size.
+        map.put(42, 4);
+        assertEquals(3, map.size());
+        assertEquals(4, map.get(42, -1));
+
+        assertTrue(map.remove(42));
+        assertFalse(map.remove(42));
+        assertEquals(2, map.size());
+        assertEquals(-1, map.get(42, -1));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        // Mix sequential ids (the common case for contacts) with random ones, and remove often
+        // enough to exercise the backward shift on removal.
+        Random random = new Random(1234);
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextBoolean() ? random.nextInt(5000) : random.nextLong();
+            if (key == Long.MIN_VALUE) continue;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+        for (long key = 0; key < 5000; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+}